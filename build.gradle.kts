@@ -1,6 +1,7 @@
 plugins {
     id("fabric-loom") version "1.10-SNAPSHOT"
     id("maven-publish")
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 version = project.property("mod_version")!!
@@ -11,6 +12,7 @@ base {
 }
 
 repositories {
+    mavenCentral()
     maven {
         name = "sonatype-oss-snapshots1"
         url = uri("https://s01.oss.sonatype.org/content/repositories/snapshots/")
@@ -33,6 +35,21 @@ dependencies {
     modImplementation("net.fabricmc.fabric-api:fabric-api:$fabricVersion")
 }
 
+// Benchmarks run against engine internals without a server, but still need Minecraft's classes to load them
+sourceSets.named("jmh") {
+    compileClasspath += sourceSets.main.get().compileClasspath
+    runtimeClasspath += sourceSets.main.get().runtimeClasspath
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+    project.findProperty("jmhIncludes")?.let { includes.set(listOf(it as String)) }
+}
+
 tasks.processResources {
     val minecraftVersion = project.property("minecraft_version")!!
     val loaderVersion = project.property("loader_version")!!
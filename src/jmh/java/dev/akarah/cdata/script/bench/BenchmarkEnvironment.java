@@ -0,0 +1,109 @@
+package dev.akarah.cdata.script.bench;
+
+import com.google.common.collect.Maps;
+import dev.akarah.cdata.registry.Resources;
+import dev.akarah.cdata.script.dsl.DslActionManager;
+import dev.akarah.cdata.script.dsl.DslCompilationCache;
+import dev.akarah.cdata.script.jvm.BytecodeCache;
+import net.minecraft.SharedConstants;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.Bootstrap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Sets up just enough of the game to compile and run scripts without a server, and provides the script corpus
+ * the benchmarks run against.
+ */
+public class BenchmarkEnvironment {
+    /**
+     * The scripts in `corpus/bench`, which are loaded as `bench/<name>`.
+     */
+    public static List<String> CORPUS = List.of(
+            "point",
+            "math",
+            "lists",
+            "structs",
+            "dicts",
+            "on_tick_guard",
+            "on_tick_counter",
+            "on_tick_struct"
+    );
+
+    private static boolean bootstrapped = false;
+
+    public static synchronized void bootstrap() {
+        if(bootstrapped) {
+            return;
+        }
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+        Resources.reset();
+        try {
+            BytecodeCache.CACHE_PATH = Files.createTempDirectory("akarahnet-bench").resolve("script_cache.bin");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        bootstrapped = true;
+    }
+
+    /**
+     * Reads the corpus.
+     * @param copies How many times to include every script besides struct definitions, which are shared.
+     *               Copies after the first are loaded as `bench/copy<i>/<name>`.
+     * @return The sources, keyed like {@link DslActionManager#loadSources(Map, Executor)} expects.
+     */
+    public static Map<ResourceLocation, String> corpus(int copies) {
+        var sources = Maps.<ResourceLocation, String>newLinkedHashMap();
+        for(var name : CORPUS) {
+            var source = BenchmarkEnvironment.read(name);
+            sources.put(ResourceLocation.withDefaultNamespace("bench/" + name), source);
+            if(source.startsWith("struct")) {
+                continue;
+            }
+            for(int i = 1; i < copies; i++) {
+                sources.put(ResourceLocation.withDefaultNamespace("bench/copy" + i + "/" + name), source);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Forgets every previous compilation, so the next load compiles from scratch.
+     */
+    public static void resetCompilation() {
+        DslCompilationCache.INSTANCE.clear();
+        try {
+            Files.deleteIfExists(BytecodeCache.CACHE_PATH);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Resources.reset();
+    }
+
+    /**
+     * Compiles the sources into a fresh action manager, which compiled scripts then resolve their calls against.
+     */
+    public static DslActionManager load(Map<ResourceLocation, String> sources, Executor executor) {
+        var manager = Resources.actionManager();
+        manager.loadSources(sources, executor);
+        return manager;
+    }
+
+    private static String read(String name) {
+        try(var stream = BenchmarkEnvironment.class.getResourceAsStream("/corpus/bench/" + name + ".aka")) {
+            if(stream == null) {
+                throw new IllegalStateException("Missing corpus script " + name);
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
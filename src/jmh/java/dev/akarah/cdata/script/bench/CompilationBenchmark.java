@@ -0,0 +1,43 @@
+package dev.akarah.cdata.script.bench;
+
+import net.minecraft.resources.ResourceLocation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading the whole corpus through {@link dev.akarah.cdata.script.dsl.DslActionManager}, from source text
+ * to bound event dispatchers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+public class CompilationBenchmark {
+    @Param({"1", "16"})
+    int copies;
+
+    Map<ResourceLocation, String> sources;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkEnvironment.bootstrap();
+        this.sources = BenchmarkEnvironment.corpus(this.copies);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        BenchmarkEnvironment.resetCompilation();
+    }
+
+    /**
+     * A reload after a restart, with no previous compilation to reuse.
+     */
+    @Benchmark
+    public Object coldCompile() {
+        return BenchmarkEnvironment.load(this.sources, ForkJoinPool.commonPool()).codeClass();
+    }
+}
@@ -0,0 +1,60 @@
+package dev.akarah.cdata.script.bench;
+
+import com.google.common.collect.Maps;
+import dev.akarah.cdata.script.dsl.DslParser;
+import dev.akarah.cdata.script.dsl.DslToken;
+import dev.akarah.cdata.script.dsl.DslTokenizer;
+import dev.akarah.cdata.script.expr.Expression;
+import dev.akarah.cdata.script.expr.ast.TypeExpression;
+import dev.akarah.cdata.script.jvm.CodegenContext;
+import dev.akarah.cdata.script.type.StructType;
+import net.minecraft.resources.ResourceLocation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures tokenizing and parsing the corpus, without compiling it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DslFrontendBenchmark {
+    Map<ResourceLocation, String> sources;
+    Map<ResourceLocation, List<DslToken>> tokens;
+    Map<String, StructType> types;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkEnvironment.bootstrap();
+        this.sources = BenchmarkEnvironment.corpus(1);
+        this.tokens = Maps.newLinkedHashMap();
+        this.types = Maps.newHashMap();
+        for(var source : this.sources.entrySet()) {
+            var tokens = DslTokenizer.tokenize(source.getKey(), source.getValue()).getOrThrow();
+            this.tokens.put(source.getKey(), tokens);
+            if(tokens.getFirst() instanceof DslToken.StructKeyword
+                    && DslParser.parseTopLevelExpression(tokens, this.types) instanceof TypeExpression(StructType alias)) {
+                this.types.put(CodegenContext.resourceLocationToMethodName(source.getKey()), alias);
+            }
+        }
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole blackhole) {
+        for(var source : this.sources.entrySet()) {
+            blackhole.consume(DslTokenizer.tokenize(source.getKey(), source.getValue()).getOrThrow());
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for(var tokens : this.tokens.values()) {
+            Expression expression = DslParser.parseTopLevelExpression(tokens, this.types);
+            blackhole.consume(expression);
+        }
+    }
+}
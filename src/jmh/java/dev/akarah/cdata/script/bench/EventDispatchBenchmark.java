@@ -0,0 +1,45 @@
+package dev.akarah.cdata.script.bench;
+
+import dev.akarah.cdata.script.dsl.DslActionManager;
+import dev.akarah.cdata.script.value.RNumber;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of dispatching an event to the corpus' `bench.tick` handlers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventDispatchBenchmark {
+    /**
+     * 5 skips the guarded handler's body, 50 runs it.
+     */
+    @Param({"5", "50"})
+    int argument;
+
+    DslActionManager manager;
+    RNumber value;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkEnvironment.bootstrap();
+        BenchmarkEnvironment.resetCompilation();
+        this.manager = BenchmarkEnvironment.load(BenchmarkEnvironment.corpus(1), Runnable::run);
+        this.value = RNumber.of(this.argument);
+    }
+
+    @Benchmark
+    public boolean performEvents() {
+        return this.manager.performEvents("bench.tick", this.value);
+    }
+
+    /**
+     * The cost of firing an event nothing listens to.
+     */
+    @Benchmark
+    public boolean performEventsWithoutHandlers() {
+        return this.manager.performEvents("bench.unused", this.value);
+    }
+}
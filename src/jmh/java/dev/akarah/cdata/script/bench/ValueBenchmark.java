@@ -0,0 +1,134 @@
+package dev.akarah.cdata.script.bench;
+
+import dev.akarah.cdata.script.type.StructType;
+import dev.akarah.cdata.script.type.Type;
+import dev.akarah.cdata.script.value.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the runtime value operations compiled scripts call most.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValueBenchmark {
+    RList list;
+    RDict dict;
+    RDict stringKeyedDict;
+    RStruct struct;
+    RFunction isEven;
+    RFunction twice;
+    RString key;
+    double counter;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        BenchmarkEnvironment.bootstrap();
+        this.list = RList.create();
+        for(int i = 0; i < 256; i++) {
+            RList.add(this.list, RNumber.of(i));
+        }
+
+        this.key = RString.of("key_128");
+        this.dict = RDict.create();
+        this.stringKeyedDict = RDict.createStringKeyed();
+        for(int i = 0; i < 256; i++) {
+            RDict.put(this.dict, RString.of("key_" + i), RNumber.of(i));
+            RDict.put(this.stringKeyedDict, RString.of("key_" + i), RNumber.of(i));
+        }
+
+        RStruct.registerLayouts(Map.of("bench_value", Type.struct("bench.value", List.of(
+                new StructType.Field("x", Type.number(), null),
+                new StructType.Field("y", Type.number(), null)
+        ))));
+        this.struct = RStruct.createWithLayout("bench.value", "bench_value");
+        RStruct.putField(this.struct, 0, "x", RNumber.of(1));
+        RStruct.putField(this.struct, 1, "y", RNumber.of(2));
+
+        var lookup = MethodHandles.lookup();
+        var type = MethodType.methodType(RuntimeValue.class, RuntimeValue.class);
+        this.isEven = RFunction.of(lookup.findStatic(ValueBenchmark.class, "isEven", type));
+        this.twice = RFunction.of(lookup.findStatic(ValueBenchmark.class, "twice", type));
+    }
+
+    static RuntimeValue isEven(RuntimeValue value) {
+        return RBoolean.of(((RNumber) value).doubleValue() % 2 == 0);
+    }
+
+    static RuntimeValue twice(RuntimeValue value) {
+        return RNumber.of(((RNumber) value).doubleValue() * 2);
+    }
+
+    @Benchmark
+    public RNumber numberOfSmallInteger() {
+        this.counter = (this.counter + 1) % 512;
+        return RNumber.of(this.counter);
+    }
+
+    @Benchmark
+    public RNumber numberOfFraction() {
+        this.counter = (this.counter + 1) % 512;
+        return RNumber.of(this.counter + 0.5);
+    }
+
+    @Benchmark
+    public RNumber numberArithmetic() {
+        return RNumber.add(RNumber.mul(RNumber.of(3), RNumber.of(4)), RNumber.of(0.5));
+    }
+
+    @Benchmark
+    public RNullable listGet() {
+        return RList.get(this.list, RNumber.of(128));
+    }
+
+    @Benchmark
+    public void listIterate(Blackhole blackhole) {
+        var snapshot = RList.iterate(this.list);
+        for(int i = 0; i < snapshot.size(); i++) {
+            blackhole.consume(snapshot.get(i));
+        }
+        RList.endIterate(this.list, snapshot);
+    }
+
+    @Benchmark
+    public RNumber listFilterMapSize() {
+        return RList.size(RList.map(RList.filter(this.list, this.isEven), this.twice));
+    }
+
+    @Benchmark
+    public RNullable dictGet() {
+        return RDict.get(this.dict, this.key);
+    }
+
+    @Benchmark
+    public RNullable stringKeyedDictGet() {
+        return RDict.get(this.stringKeyedDict, this.key);
+    }
+
+    @Benchmark
+    public void dictPut() {
+        RDict.put(this.dict, this.key, RNumber.of(1));
+    }
+
+    @Benchmark
+    public RuntimeValue structGetField() {
+        return RStruct.getField(this.struct, 1, "y", null);
+    }
+
+    @Benchmark
+    public void structPutField() {
+        RStruct.putField(this.struct, 0, "x", RNumber.of(3));
+    }
+
+    @Benchmark
+    public RuntimeValue structGetByName() {
+        return RStruct.get(this.struct, "y", null);
+    }
+}
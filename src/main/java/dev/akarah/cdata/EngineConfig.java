@@ -5,9 +5,13 @@ import com.mojang.serialization.codecs.RecordCodecBuilder;
 import dev.akarah.cdata.registry.stat.StatsObject;
 
 public record EngineConfig(
-        StatsObject baseStats
+        StatsObject baseStats,
+        int scriptBudgetMs,
+        int storeIdleSeconds
 ) {
     public static Codec<EngineConfig> CODEC = RecordCodecBuilder.create(instance -> instance.group(
-            StatsObject.CODEC.optionalFieldOf("base_stats", StatsObject.EMPTY).forGetter(EngineConfig::baseStats)
+            StatsObject.CODEC.optionalFieldOf("base_stats", StatsObject.EMPTY).forGetter(EngineConfig::baseStats),
+            Codec.INT.optionalFieldOf("script_budget_ms", 0).forGetter(EngineConfig::scriptBudgetMs),
+            Codec.INT.optionalFieldOf("store_idle_seconds", 600).forGetter(EngineConfig::storeIdleSeconds)
     ).apply(instance, EngineConfig::new));
 }
@@ -16,6 +16,8 @@ import com.mojang.datafixers.util.Pair;
 import dev.akarah.cdata.registry.Resources;
 import dev.akarah.cdata.script.exception.SpannedException;
 import dev.akarah.cdata.script.expr.docs.DocBuilder;
+import dev.akarah.cdata.script.jvm.ScriptProfiler;
+import dev.akarah.cdata.script.jvm.ScriptWatchdog;
 import dev.akarah.cdata.script.value.mc.REntity;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
@@ -71,6 +73,32 @@ public class Main implements ModInitializer {
 
             root.then(Commands.literal("give"));
 
+            root.then(Commands.literal("profile")
+                    .then(Commands.literal("start").executes(ctx -> {
+                        ScriptProfiler.start();
+                        ctx.getSource().sendSuccess(() -> Component.literal("Script profiler started."), true);
+                        return 0;
+                    }))
+                    .then(Commands.literal("stop").executes(ctx -> {
+                        ScriptProfiler.stop();
+                        ctx.getSource().sendSuccess(() -> Component.literal("Script profiler stopped."), true);
+                        return 0;
+                    }))
+                    .then(Commands.literal("dump").executes(ctx -> {
+                        var entries = ScriptProfiler.sortedEntries();
+                        ctx.getSource().sendSuccess(() -> Component.literal("Scripts aborted by the watchdog: " + ScriptWatchdog.timeouts()), false);
+                        for(var entry : entries.subList(0, Math.min(entries.size(), 10))) {
+                            ctx.getSource().sendSuccess(() -> Component.literal(ScriptProfiler.describe(entry.getKey(), entry.getValue())), false);
+                        }
+                        try {
+                            ScriptProfiler.dumpJson();
+                            ctx.getSource().sendSuccess(() -> Component.literal("Full profile written to " + ScriptProfiler.DUMP_PATH), false);
+                        } catch (IOException e) {
+                            ctx.getSource().sendFailure(Component.literal("Unable to write profile: " + e.getMessage()));
+                        }
+                        return 0;
+                    })));
+
             Resources.customItem().registry().listElements().forEach(element -> {
                 root.then(Commands.literal("give").then(Commands.literal(element.key().location().toString()).executes(ctx -> {
                     try {
@@ -5,9 +5,12 @@ import com.google.common.collect.Maps;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Scheduler {
     Map<Integer, List<Runnable>> tasks = Maps.newHashMap();
+    Queue<Runnable> serverThreadTasks = new ConcurrentLinkedQueue<>();
 
     public void schedule(int delay, Runnable task) {
         var occursAt = Main.server().getTickCount() + delay;
@@ -19,11 +22,24 @@ public class Scheduler {
         list.add(task);
     }
 
+    /**
+     * Runs a task on the server thread during the next tick. Unlike {@link Scheduler#schedule(int, Runnable)},
+     * this is safe to call from any thread.
+     */
+    public void runOnServerThread(Runnable task) {
+        this.serverThreadTasks.add(task);
+    }
+
     public void tick() {
+        Runnable queued;
+        while((queued = this.serverThreadTasks.poll()) != null) {
+            queued.run();
+        }
+
         if(this.tasks.containsKey(Main.server().getTickCount())) {
             for(var task : this.tasks.remove(Main.server().getTickCount())) {
                 task.run();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,17 +1,35 @@
 package dev.akarah.cdata.db;
 
-import dev.akarah.cdata.script.value.RNumber;
-import dev.akarah.cdata.script.value.RuntimeValue;
+import dev.akarah.cdata.script.value.*;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
 
-import java.util.Map;
-
 public class DataStore {
     Object2ObjectAVLTreeMap<String, RuntimeValue> objects;
+    String name;
+    Database database;
+    boolean evicted;
+    long lastAccessed = System.currentTimeMillis();
+    /**
+     * Keys holding mutable values that scripts got hold of, since scripts may change those in place without going
+     * through {@link DataStore#put(String, RuntimeValue)}. Each maps to the stamp its value was last logged at.
+     */
+    Object2LongOpenHashMap<String> handedOut = new Object2LongOpenHashMap<>();
+    /**
+     * The {@link MutableValue} stamp of the last write.
+     */
+    long lastWrite;
+    volatile long savedVersion;
 
 
+    /**
+     * Decoding the map stamps its values, so the store starts out saved at the current stamp to not count those as
+     * changes.
+     */
     private DataStore(Object2ObjectAVLTreeMap<String, RuntimeValue> map) {
         this.objects = map;
+        this.lastWrite = MutableValue.currentStamp();
+        this.savedVersion = this.lastWrite;
     }
 
     public static DataStore of() {
@@ -22,12 +40,135 @@ public class DataStore {
         return new DataStore(map);
     }
 
+    /**
+     * Makes this store part of a database, so its writes are recorded in the database's log.
+     */
+    public void attach(String name, Database database) {
+        this.name = name;
+        this.database = database;
+    }
+
+    /**
+     * Marks this store as used. A script may still hold a store that was evicted, in which case it is brought back
+     * so its changes are saved.
+     */
+    private void touch() {
+        this.lastAccessed = System.currentTimeMillis();
+        if(this.evicted) {
+            this.database.reinstate(this.name, this);
+        }
+    }
+
     public void put(String key, RuntimeValue value) {
+        this.touch();
         this.objects.put(key, value);
+        this.lastWrite = MutableValue.nextStamp();
+        var log = this.database == null ? null : this.database.log();
+        if(log != null) {
+            log.append(this.name, key, value);
+        }
+        if(value instanceof MutableValue) {
+            this.handedOut.put(key, this.lastWrite);
+        } else {
+            this.handedOut.removeLong(key);
+        }
     }
 
+    /**
+     * Reading a value doesn't make this store dirty. A mutable value is remembered instead, and only counts as a
+     * change once it is actually changed.
+     */
     public RuntimeValue get(String key) {
-        return this.objects.getOrDefault(key, null);
+        this.touch();
+        var value = this.objects.getOrDefault(key, null);
+        if(value instanceof MutableValue && !this.handedOut.containsKey(key)) {
+            this.handedOut.put(key, MutableValue.currentStamp());
+        }
+        return value;
+    }
+
+    /**
+     * Writes a value recovered from the log, without logging it again.
+     */
+    public void restore(String key, RuntimeValue value) {
+        this.objects.put(key, value);
+        this.lastWrite = MutableValue.nextStamp();
+        this.handedOut.removeLong(key);
+    }
+
+    /**
+     * The stamp of the last change to this store, either a write or an in-place change to a value scripts got hold of.
+     */
+    public long version() {
+        var version = this.lastWrite;
+        for(var key : this.handedOut.keySet()) {
+            version = Math.max(version, DataStore.lastMutation(this.objects.get(key)));
+        }
+        return version;
+    }
+
+    /**
+     * Whether this store changed since its snapshot was last written.
+     */
+    public boolean isDirty() {
+        return this.version != this.savedVersion;
+    }
+
+    /**
+     * Records that a snapshot of this store at the given version reached the disk.
+     */
+    public void markSaved(long version) {
+        this.savedVersion = version;
+    }
+
+    /**
+     * Logs the current value of every key that was changed in place since it was last logged, since those changes
+     * never go through {@link DataStore#put(String, RuntimeValue)}.
+     */
+    public void logTouched() {
+        var log = this.database == null ? null : this.database.log();
+        if(log == null) {
+            return;
+        }
+        for(var entry : this.handedOut.object2LongEntrySet()) {
+            var value = this.objects.get(entry.getKey());
+            var stamp = DataStore.lastMutation(value);
+            if(stamp > entry.getLongValue()) {
+                log.append(this.name, entry.getKey(), value);
+                entry.setValue(stamp);
+            }
+        }
+    }
+
+    /**
+     * The stamp of the last in-place change to a value or any value inside it, or 0 if it was never changed.
+     */
+    static long lastMutation(RuntimeValue value) {
+        return switch (value) {
+            case RList list -> {
+                var stamp = list.lastMutation();
+                for(var element : list.javaValue()) {
+                    stamp = Math.max(stamp, DataStore.lastMutation(element));
+                }
+                yield stamp;
+            }
+            case RDict dict -> {
+                var stamp = dict.lastMutation();
+                for(var entry : dict.javaValue().entrySet()) {
+                    stamp = Math.max(stamp, DataStore.lastMutation(entry.getKey()));
+                    stamp = Math.max(stamp, DataStore.lastMutation(entry.getValue()));
+                }
+                yield stamp;
+            }
+            case RStruct struct -> {
+                var stamp = new long[] { struct.lastMutation() };
+                struct.forEachField((_, field) -> stamp[0] = Math.max(stamp[0], DataStore.lastMutation(field)));
+                yield stamp[0];
+            }
+            case RCell cell -> Math.max(cell.lastMutation(), DataStore.lastMutation(cell.inner()));
+            case MutableValue mutable -> mutable.lastMutation();
+            case null, default -> 0;
+        };
     }
 
     public Object2ObjectAVLTreeMap<String, RuntimeValue> map() {
@@ -1,13 +1,27 @@
 package dev.akarah.cdata.db;
 
+import com.google.common.collect.Maps;
+import dev.akarah.cdata.db.persistence.WriteAheadLog;
 import it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
 
+import java.lang.ref.WeakReference;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 public class Database {
     Map<String, DataStore> dataStores = new Object2ObjectAVLTreeMap<>();
+    /**
+     * Stores evicted from {@link Database#dataStores}, which scripts may still hold on to.
+     */
+    Map<String, WeakReference<DataStore>> evicted = Maps.newHashMap();
+    Map<String, CompletableFuture<DataStore>> prefetching = Maps.newHashMap();
+    WriteAheadLog log;
+    /**
+     * Reads a store that is not in memory from disk, returning null if it was never saved.
+     */
+    Function<String, DataStore> loader;
 
     private static Database LOCAL;
     private static Database GLOBAL;
@@ -33,18 +47,117 @@ public class Database {
     public DataStore get(String key) {
         var value = dataStores.get(key);
         if(value == null) {
-            var ds = DataStore.of();
-            dataStores.put(key, ds);
+            var ds = this.restore(key);
+            this.writeDataStore(key, ds);
             return ds;
         } else {
+            value.lastAccessed = System.currentTimeMillis();
             return value;
         }
     }
 
+    private DataStore restore(String key) {
+        var reference = this.evicted.remove(key);
+        if(reference != null && reference.get() != null) {
+            var ds = reference.get();
+            ds.evicted = false;
+            return ds;
+        }
+        var prefetch = this.prefetching.remove(key);
+        var loaded = prefetch != null ? prefetch.join() : this.loader == null ? null : this.loader.apply(key);
+        return loaded == null ? DataStore.of() : loaded;
+    }
+
+    /**
+     * The store if it is in memory, including an evicted store scripts still hold on to. Does not load it from disk or
+     * count as a use.
+     * @return The store, or null if it is not in memory.
+     */
+    public DataStore resident(String key) {
+        var value = this.dataStores.get(key);
+        if(value != null) {
+            return value;
+        }
+        var reference = this.evicted.get(key);
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * Starts reading a store from disk in the background, so a later {@link Database#get(String)} does not block on it.
+     */
+    public void prefetch(String key) {
+        if(this.loader == null || this.dataStores.containsKey(key) || this.prefetching.containsKey(key)) {
+            return;
+        }
+        var reference = this.evicted.get(key);
+        if(reference != null && reference.get() != null) {
+            return;
+        }
+        var loader = this.loader;
+        this.prefetching.put(key, CompletableFuture.supplyAsync(() -> loader.apply(key)));
+    }
+
     public void writeDataStore(String name, DataStore dataStore) {
+        dataStore.attach(name, this);
         this.dataStores.put(name, dataStore);
     }
 
+    void reinstate(String name, DataStore dataStore) {
+        this.evicted.remove(name);
+        dataStore.evicted = false;
+        this.dataStores.put(name, dataStore);
+    }
+
+    /**
+     * Drops stores that were not used for a while from memory. Only stores whose snapshot is up to date are dropped,
+     * so they can be read back from disk.
+     * @param idleMillis How long a store must go unused before it is dropped.
+     * @return How many idle stores could not be dropped because they have unsaved changes.
+     */
+    public int evictIdle(long idleMillis) {
+        var cutoff = System.currentTimeMillis() - idleMillis;
+        var unsaved = 0;
+        var iterator = this.dataStores.entrySet().iterator();
+        while(iterator.hasNext()) {
+            var entry = iterator.next();
+            var ds = entry.getValue();
+            if(ds.lastAccessed > cutoff) {
+                continue;
+            }
+            if(ds.isDirty()) {
+                unsaved += 1;
+                continue;
+            }
+            iterator.remove();
+            ds.evicted = true;
+            this.evicted.put(entry.getKey(), new WeakReference<>(ds));
+        }
+        this.evicted.values().removeIf(reference -> reference.get() == null);
+        this.prefetching.values().removeIf(CompletableFuture::isDone);
+        return unsaved;
+    }
+
+    /**
+     * Records every later write to this database's stores in the log.
+     */
+    public void attachLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    public WriteAheadLog log() {
+        return this.log;
+    }
+
+    /**
+     * Lets stores that are not in memory be read from disk on first use.
+     */
+    public void setLoader(Function<String, DataStore> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * The stores currently in memory.
+     */
     public Stream<Map.Entry<String, DataStore>> dataStores() {
         return this.dataStores.entrySet().stream();
     }
@@ -7,9 +7,13 @@ import dev.akarah.cdata.script.value.mc.REntity;
 import dev.akarah.cdata.script.value.mc.RIdentifier;
 import dev.akarah.cdata.script.value.mc.RItem;
 import dev.akarah.cdata.script.value.mc.RVector;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
 import it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
 import net.minecraft.core.Holder;
 import net.minecraft.core.UUIDUtil;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.network.RegistryFriendlyByteBuf;
 import net.minecraft.network.codec.ByteBufCodecs;
 import net.minecraft.network.codec.StreamCodec;
@@ -23,6 +27,12 @@ import java.util.List;
 import java.util.Map;
 
 public class DbCodecs {
+    /**
+     * Allocates the buffers persistence encodes into. They are direct, so they can be written to a file channel
+     * without an extra copy, and must be released once written.
+     */
+    public static ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+
     public static StreamCodec<RegistryFriendlyByteBuf, RuntimeValue> DYNAMIC_CODEC = StreamCodec.recursive(selfCodec -> StreamCodec.of(
             (buf, object) -> {
                 switch (object) {
@@ -32,7 +42,7 @@ public class DbCodecs {
                     }
                     case RString s -> {
                         buf.writeVarInt(2);
-                        buf.writeByteArray(s.javaValue().getBytes(StandardCharsets.UTF_8));
+                        DbCodecs.writeString(buf, s.javaValue());
                     }
                     case RList arrayList -> {
                         buf.writeVarInt(3);
@@ -51,12 +61,12 @@ public class DbCodecs {
                     }
                     case RStruct struct -> {
                         buf.writeVarInt(5);
-                        buf.writeVarInt(struct.javaValue().size());
-                        buf.writeUtf(struct.name());
-                        for(var entry : struct.javaValue().entrySet()) {
-                            buf.writeUtf(entry.getKey());
-                            selfCodec.encode(buf, entry.getValue());
-                        }
+                        buf.writeVarInt(struct.size());
+                        DbCodecs.writeString(buf, struct.name());
+                        struct.forEachField((field, value) -> {
+                            DbCodecs.writeString(buf, field);
+                            selfCodec.encode(buf, value);
+                        });
                     }
                     case RVector vector -> {
                         buf.writeVarInt(6);
@@ -95,7 +105,7 @@ public class DbCodecs {
                         return RNumber.of(buf.readDouble());
                     }
                     case 2 -> {
-                        return RString.of(new String(buf.readByteArray(), StandardCharsets.UTF_8));
+                        return RString.of(DbCodecs.readString(buf));
                     }
                     case 3 -> {
                         var list = RList.create();
@@ -115,10 +125,10 @@ public class DbCodecs {
                     }
                     case 5 -> {
                         var size = buf.readVarInt();
-                        var name = buf.readUtf();
-                        var struct = RStruct.create(name, size);
+                        var name = DbCodecs.readString(buf);
+                        var struct = RStruct.create(name);
                         for(int i = 0; i < size; i++) {
-                            var field = buf.readUtf();
+                            var field = DbCodecs.readString(buf);
                             RStruct.put(struct, field, selfCodec.decode(buf));
                         }
                         return struct;
@@ -173,5 +183,23 @@ public class DbCodecs {
             }
     );
 
+    /**
+     * Writes a string in the layout of {@link FriendlyByteBuf#writeUtf(String)}, encoding it straight into the buffer
+     * instead of through a temporary byte array or buffer.
+     */
+    public static void writeString(FriendlyByteBuf buf, String string) {
+        buf.writeVarInt(ByteBufUtil.utf8Bytes(string));
+        buf.writeCharSequence(string, StandardCharsets.UTF_8);
+    }
 
+    /**
+     * Reads a string written by {@link DbCodecs#writeString(FriendlyByteBuf, String)} or
+     * {@link FriendlyByteBuf#writeUtf(String)}, decoding it straight out of the buffer.
+     */
+    public static String readString(FriendlyByteBuf buf) {
+        var length = buf.readVarInt();
+        var string = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return string;
+    }
 }
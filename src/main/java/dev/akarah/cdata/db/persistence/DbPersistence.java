@@ -1,108 +1,228 @@
 package dev.akarah.cdata.db.persistence;
 
-import com.mojang.datafixers.util.Pair;
-import dev.akarah.cdata.Main;
+import com.google.common.collect.Lists;
 import dev.akarah.cdata.db.DataStore;
 import dev.akarah.cdata.db.Database;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufUtil;
+import dev.akarah.cdata.registry.Resources;
+import dev.akarah.cdata.script.value.RuntimeValue;
 import io.netty.buffer.Unpooled;
 import net.minecraft.core.RegistryAccess;
 import net.minecraft.network.RegistryFriendlyByteBuf;
-import net.minecraft.network.codec.ByteBufCodecs;
-import net.minecraft.network.codec.StreamCodec;
-import org.apache.commons.io.FileExistsException;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.file.*;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
+/**
+ * Persists {@link Database#save()} into {@link SegmentStorage}. Stores are read from disk when first used, and dropped
+ * from memory again once they have been idle for {@link dev.akarah.cdata.EngineConfig#storeIdleSeconds()}.
+ * Every write is recorded in a {@link WriteAheadLog} as it happens, so saving only has to log values that were changed
+ * in place. Once the log grows large, and when the server stops, it is compacted into snapshots, skipping stores that
+ * did not change since their last snapshot.
+ */
 public class DbPersistence {
+    /**
+     * Marks `.db` files that start with the log generation they cover. Older files lack it and cover none.
+     */
+    static int SNAPSHOT_MAGIC = 0x414B4442;
+    static SegmentStorage STORAGE;
+
+    record LoadedStore(String name, long generation, DataStore dataStore) {
+
+    }
+
+    /**
+     * Makes every change since the last save durable. Compacts the log into snapshots if it grew too large.
+     */
     public static CompletableFuture<Void> savePersistentDb(RegistryAccess access) {
-        var entries = Database.save().dataStores().toList();
-        var futures = new CompletableFuture[entries.size()];
-        for(int i = 0; i < entries.size(); i++) {
-            var entry = entries.get(i);
-            futures[i] = saveDataStore(entry.getKey(), entry.getValue(), access);
+        var idleSeconds = Resources.config() == null ? 0 : Resources.config().storeIdleSeconds();
+        var unsavedIdleStores = idleSeconds <= 0 ? 0 : Database.save().evictIdle(idleSeconds * 1000L);
+
+        var log = Database.save().log();
+        if(log == null) {
+            return compactPersistentDb(access);
+        }
+        Database.save().dataStores().forEach(entry -> entry.getValue().logTouched());
+        // idle stores with unsaved changes get a snapshot now, so the next save can evict them
+        if(log.needsCompaction() || unsavedIdleStores > 0) {
+            return compactPersistentDb(access);
         }
-        return CompletableFuture.allOf(futures);
+        return CompletableFuture.runAsync(log::flush);
     }
 
-    public static CompletableFuture<Void> saveDataStore(String name, DataStore dataStore, RegistryAccess access) {
-        return CompletableFuture.runAsync(() -> {
-            var path = Paths.get("./saved/" + name + ".db");
-            var buf = new RegistryFriendlyByteBuf(Unpooled.buffer(), access);
-            DbCodecs.TREE_MAP_CODEC.encode(buf, dataStore.map());
-            try {
-                try {
-                    Files.createDirectories(path);
-                } catch (FileAlreadyExistsException ignored) {
-
-                }
-                try {
-                    Files.delete(path);
-                } catch (NoSuchFileException ignored) {
+    /**
+     * Compacts the log into snapshots, then closes it and the segment storage. Called when the server stops.
+     */
+    public static CompletableFuture<Void> closePersistentDb(RegistryAccess access) {
+        var log = Database.save().log();
+        Database.save().dataStores().forEach(entry -> entry.getValue().logTouched());
+        return compactPersistentDb(access).thenRun(() -> {
+            if(log != null) {
+                Database.save().attachLog(null);
+                log.close();
+            }
+            DbPersistence.closeStorage();
+        });
+    }
 
-                }
-                try {
-                    Files.createFile(path);
-                } catch (FileAlreadyExistsException ignored) {
+    /**
+     * Writes every dirty store as a snapshot covering all log generations before a freshly started one, then deletes
+     * those generations. The stores are encoded on the calling thread, so the snapshots are consistent with the log.
+     * <p>
+     * Clean stores keep their older snapshot. They have no records in the deleted generations, since any write
+     * would have made them dirty.
+     */
+    public static CompletableFuture<Void> compactPersistentDb(RegistryAccess access) {
+        var log = Database.save().log();
+        var generation = log == null ? 0 : log.rotate();
+        var storage = DbPersistence.storage();
 
-                }
-                var idx = buf.writerIndex();
-                var arr = new byte[idx];
-                System.arraycopy(buf.array(), 0, arr, 0, arr.length);
-                Files.write(path, arr);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        var entries = Database.save().dataStores()
+                .filter(entry -> entry.getValue().isDirty())
+                .toList();
+        var snapshots = Lists.<SegmentStorage.Snapshot>newArrayList();
+        var versions = new long[entries.size()];
+        try {
+            for(int i = 0; i < entries.size(); i++) {
+                var entry = entries.get(i);
+                versions[i] = entry.getValue().version();
+                snapshots.add(SegmentStorage.encode(entry.getKey(), generation, entry.getValue().map(), access));
+            }
+        } catch (RuntimeException e) {
+            snapshots.forEach(snapshot -> snapshot.payload().release());
+            throw e;
+        }
+        return CompletableFuture.runAsync(() -> {
+            storage.write(snapshots);
+            for(int i = 0; i < entries.size(); i++) {
+                entries.get(i).getValue().markSaved(versions[i]);
+            }
+            if(log != null) {
+                log.deleteBefore(generation);
             }
         });
     }
 
-    @SuppressWarnings("unchecked")
-    public static CompletableFuture<Void> loadPersistentDb(RegistryAccess access) {
-        try {
-            List<Path> entries;
+    static synchronized SegmentStorage storage() {
+        if(STORAGE == null) {
+            STORAGE = SegmentStorage.open();
+        }
+        return STORAGE;
+    }
 
-            var rootDir = Paths.get("./saved/");
-            Files.createDirectories(rootDir);
+    static synchronized void closeStorage() {
+        if(STORAGE != null) {
+            STORAGE.close();
+            STORAGE = null;
+        }
+    }
 
-            try(var files = Files.walk(rootDir)) {
-                entries = files.filter(x -> x.toString().endsWith(".db")).toList();
-            }
+    /**
+     * Prepares the persistent database. Stores are read from disk on first use, except for those with records in the
+     * log, which are loaded now so the log can be replayed on top of them. Logging then starts in a new generation.
+     */
+    public static CompletableFuture<Void> loadPersistentDb(RegistryAccess access) {
+        DbPersistence.migrateLegacyFiles(access);
 
-            var futures = new CompletableFuture[entries.size()];
-            for(int i = 0; i < entries.size(); i++) {
-                var entry = entries.get(i);
-                futures[i] = loadDataStore(entry, access);
-            }
+        var database = Database.save();
+        database.setLoader(name -> {
+            var loaded = DbPersistence.loadDataStore(name, access);
+            return loaded == null ? null : loaded.dataStore();
+        });
 
-            return CompletableFuture.allOf(futures)
-                    .thenApply(_ -> Arrays.stream(futures).map(CompletableFuture::join).map(x -> (Pair<String, DataStore>) x).toList())
-                    .thenAccept(list -> list.forEach(ds -> Database.save().writeDataStore(ds.getFirst(), ds.getSecond())));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        var names = List.copyOf(WriteAheadLog.storesWithRecords());
+        var futures = new CompletableFuture[names.size()];
+        for(int i = 0; i < names.size(); i++) {
+            var name = names.get(i);
+            futures[i] = CompletableFuture.supplyAsync(() -> {
+                var loaded = DbPersistence.loadDataStore(name, access);
+                return loaded == null ? new LoadedStore(name, 0, DataStore.of()) : loaded;
+            });
         }
+
+        return CompletableFuture.allOf(futures)
+                .thenApply(_ -> Arrays.stream(futures).map(CompletableFuture::join).map(x -> (LoadedStore) x).toList())
+                .thenAccept(list -> {
+                    list.forEach(ds -> database.writeDataStore(ds.name(), ds.dataStore()));
+                    Map<String, Long> covered = list.stream()
+                            .collect(Collectors.toMap(LoadedStore::name, LoadedStore::generation));
+                    var newest = WriteAheadLog.replay(
+                            access,
+                            covered,
+                            (store, key, value) -> database.get(store).restore(key, value)
+                    );
+                    database.attachLog(WriteAheadLog.open(access, newest + 1));
+                });
     }
 
+    /**
+     * Reads the snapshot of a store.
+     * @return The store, or null if it has no snapshot.
+     */
+    static LoadedStore loadDataStore(String name, RegistryAccess access) {
+        return DbPersistence.storage().read(name, access);
+    }
+
+    /**
+     * Reads a single value of a store without loading it. A store in memory is read directly. Otherwise its
+     * snapshot is current, since stores are only dropped from memory once saved, so only the one value is decoded,
+     * and changes made to it in place are not saved.
+     */
+    public static RuntimeValue peek(String name, String key, RegistryAccess access) {
+        var resident = Database.save().resident(name);
+        if(resident != null) {
+            return resident.get(key);
+        }
+        return DbPersistence.storage().readValue(name, key, access);
+    }
 
+    /**
+     * Moves stores saved as individual `./saved/<name>.db` files into the segment storage, then deletes the files.
+     */
+    static void migrateLegacyFiles(RegistryAccess access) {
+        var rootDir = Paths.get("./saved/");
+        List<Path> files;
+        try {
+            Files.createDirectories(rootDir);
+            try(var walk = Files.walk(rootDir)) {
+                files = walk.filter(x -> x.toString().endsWith(".db")).toList();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if(files.isEmpty()) {
+            return;
+        }
 
-    public static CompletableFuture<Pair<String, DataStore>> loadDataStore(Path path, RegistryAccess access) {
-        return CompletableFuture.supplyAsync(() -> {
+        System.out.println("Migrating " + files.size() + " data store files into segment storage...");
+        var snapshots = Lists.<SegmentStorage.Snapshot>newArrayList();
+        for(var path : files) {
             try {
-                var file = Files.readAllBytes(path);
-                var bb = ByteBuffer.wrap(file);
-                var buf = new RegistryFriendlyByteBuf(Unpooled.wrappedBuffer(bb), access);
-                var decoded = DbCodecs.TREE_MAP_CODEC.decode(buf);
-                var ds = DataStore.of(decoded);
-                return Pair.of(path.toString().replace("./saved/", "").replace(".db", ""), ds);
+                var buf = new RegistryFriendlyByteBuf(Unpooled.wrappedBuffer(Files.readAllBytes(path)), access);
+                long generation = 0;
+                if(buf.readableBytes() >= 12 && buf.getInt(buf.readerIndex()) == SNAPSHOT_MAGIC) {
+                    buf.readInt();
+                    generation = buf.readLong();
+                }
+                var name = rootDir.relativize(path).toString().replace('\\', '/').replace(".db", "");
+                snapshots.add(SegmentStorage.encode(name, generation, DbCodecs.TREE_MAP_CODEC.decode(buf), access));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        });
+        }
+        DbPersistence.storage().write(snapshots);
+        for(var path : files) {
+            try {
+                Files.delete(path);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
     }
 }
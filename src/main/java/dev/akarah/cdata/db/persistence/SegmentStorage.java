@@ -0,0 +1,396 @@
+package dev.akarah.cdata.db.persistence;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import dev.akarah.cdata.db.DataStore;
+import dev.akarah.cdata.script.value.RuntimeValue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the snapshots of every persistent {@link DataStore} in a few large append-only segment files,
+ * `./saved/segments/<n>.seg`, which are read through memory maps.
+ * <p>
+ * Each snapshot is a record `[int length][int crc32][payload]`. The payload holds the store name, the log generation
+ * the snapshot covers, the entry count, a table with the offset of every entry, and then the entries as key and
+ * value, sorted by key. The offset table lets {@link SegmentStorage#readValue(String, String, RegistryAccess)} binary
+ * search a single key without decoding the rest of the store.
+ * <p>
+ * Rewriting a store appends a new record, and `index.bin` maps every store name to its newest record. The index is
+ * replaced atomically after the records it points to are forced to disk, so a crash leaves the previous index and
+ * records intact. Segments whose records are mostly superseded are copied forward and deleted.
+ * <p>
+ * Reads hold the read lock while they look up the index and decode from a mapping, and writes hold the write lock, so a
+ * segment is never deleted while a read uses it. A segment whose file can't be deleted yet, such as a mapped file on
+ * Windows, is retried on every later write.
+ */
+public class SegmentStorage {
+    public static Path DIRECTORY = Paths.get("./saved/segments/");
+    static long MAX_SEGMENT_BYTES = 256L * 1024 * 1024;
+    static double MIN_LIVE_RATIO = 0.5;
+    static int INDEX_MAGIC = 0x414B4958;
+
+    public record Location(int segment, long offset, int length, long generation) {
+
+    }
+
+    /**
+     * The encoded payload of a snapshot, ready to be written. The payload is a pooled buffer, released by
+     * {@link SegmentStorage#write(List)}.
+     */
+    public record Snapshot(String name, long generation, ByteBuf payload) {
+
+    }
+
+    private final Map<String, Location> index = Maps.newConcurrentMap();
+    private final Map<Integer, MappedByteBuffer> mapped = Maps.newConcurrentMap();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int activeSegment;
+    private FileChannel active;
+
+    private SegmentStorage() {
+
+    }
+
+    public static SegmentStorage open() {
+        var storage = new SegmentStorage();
+        try {
+            Files.createDirectories(DIRECTORY);
+            var indexPath = DIRECTORY.resolve("index.bin");
+            if(Files.exists(indexPath)) {
+                try(var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+                    if(in.readInt() != INDEX_MAGIC) {
+                        throw new IOException("Not a segment index: " + indexPath);
+                    }
+                    var count = in.readInt();
+                    for(int i = 0; i < count; i++) {
+                        var name = in.readUTF();
+                        storage.index.put(name, new Location(in.readInt(), in.readLong(), in.readInt(), in.readLong()));
+                    }
+                }
+            }
+            var newest = SegmentStorage.segments().stream().mapToInt(Integer::intValue).max().orElse(0);
+            storage.openSegment(newest);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return storage;
+    }
+
+    static Path path(int segment) {
+        return DIRECTORY.resolve(segment + ".seg");
+    }
+
+    static List<Integer> segments() throws IOException {
+        try(var files = Files.list(DIRECTORY)) {
+            return files
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(".seg"))
+                    .map(name -> Integer.parseInt(name.substring(0, name.length() - ".seg".length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private void openSegment(int segment) throws IOException {
+        if(this.active != null) {
+            this.active.force(true);
+            this.active.close();
+        }
+        this.activeSegment = segment;
+        this.active = FileChannel.open(
+                SegmentStorage.path(segment),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND
+        );
+    }
+
+    /**
+     * Encodes a store. Must be called on the thread that owns the store.
+     */
+    public static Snapshot encode(String name, long generation, Object2ObjectAVLTreeMap<String, RuntimeValue> map, RegistryAccess access) {
+        var payload = DbCodecs.ALLOCATOR.directBuffer();
+        try {
+            var buf = new RegistryFriendlyByteBuf(payload, access);
+            DbCodecs.writeString(buf, name);
+            buf.writeLong(generation);
+            buf.writeInt(map.size());
+            var table = buf.writerIndex();
+            buf.writeZero(map.size() * 4);
+            int i = 0;
+            for(var entry : map.entrySet()) {
+                buf.setInt(table + i * 4, buf.writerIndex());
+                DbCodecs.writeString(buf, entry.getKey());
+                DbCodecs.DYNAMIC_CODEC.encode(buf, entry.getValue());
+                i += 1;
+            }
+        } catch (RuntimeException e) {
+            payload.release();
+            throw e;
+        }
+        return new Snapshot(name, generation, payload);
+    }
+
+    /**
+     * Appends snapshots, forces them to disk and points the index at them, then releases their payloads. Segments
+     * left mostly unused afterward are compacted.
+     */
+    public void write(List<Snapshot> snapshots) {
+        if(snapshots.isEmpty()) {
+            return;
+        }
+        this.lock.writeLock().lock();
+        try {
+            for(var snapshot : snapshots) {
+                var payload = snapshot.payload();
+                var crc = new CRC32();
+                for(var buffer : payload.nioBuffers()) {
+                    crc.update(buffer);
+                }
+                var location = this.append(payload.nioBuffers(), payload.readableBytes(), (int) crc.getValue(), snapshot.generation());
+                this.index.put(snapshot.name(), location);
+            }
+            this.active.force(true);
+            this.writeIndex();
+            this.collectGarbage();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.lock.writeLock().unlock();
+            snapshots.forEach(snapshot -> snapshot.payload().release());
+        }
+    }
+
+    /**
+     * Writes a record straight from the given buffers, without copying them into one array first.
+     */
+    private Location append(ByteBuffer[] payload, int length, int crc, long generation) throws IOException {
+        if(this.active.size() >= MAX_SEGMENT_BYTES) {
+            this.openSegment(this.activeSegment + 1);
+        }
+        var buffers = new ByteBuffer[payload.length + 1];
+        buffers[0] = ByteBuffer.allocate(8).putInt(length).putInt(crc).flip();
+        System.arraycopy(payload, 0, buffers, 1, payload.length);
+        var offset = this.active.size() + 8;
+        var remaining = length + 8L;
+        while(remaining > 0) {
+            remaining -= this.active.write(buffers);
+        }
+        return new Location(this.activeSegment, offset, length, generation);
+    }
+
+    private void writeIndex() throws IOException {
+        var indexPath = DIRECTORY.resolve("index.bin");
+        var temporary = DIRECTORY.resolve("index.bin.tmp");
+        try(var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(this.index.size());
+            for(var entry : this.index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().segment());
+                out.writeLong(entry.getValue().offset());
+                out.writeInt(entry.getValue().length());
+                out.writeLong(entry.getValue().generation());
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Copies the live records out of sealed segments that are mostly superseded, then deletes those segments along
+     * with any segment no record points to anymore. Must hold the write lock.
+     */
+    private void collectGarbage() throws IOException {
+        var liveBytes = Maps.<Integer, Long>newHashMap();
+        for(var location : this.index.values()) {
+            liveBytes.merge(location.segment(), location.length() + 8L, Long::sum);
+        }
+
+        var collected = Lists.<Integer>newArrayList();
+        var unused = Lists.<Integer>newArrayList();
+        for(var segment : SegmentStorage.segments()) {
+            if(segment == this.activeSegment) {
+                continue;
+            }
+            var live = liveBytes.getOrDefault(segment, 0L);
+            if(live == 0) {
+                unused.add(segment);
+                continue;
+            }
+            if(live >= Files.size(SegmentStorage.path(segment)) * MIN_LIVE_RATIO) {
+                continue;
+            }
+            for(var entry : this.index.entrySet()) {
+                var location = entry.getValue();
+                if(location.segment() != segment) {
+                    continue;
+                }
+                var crc = this.map(segment, location.offset()).getInt((int) location.offset() - 4);
+                var record = new ByteBuffer[]{this.record(location)};
+                entry.setValue(this.append(record, location.length(), crc, location.generation()));
+            }
+            collected.add(segment);
+        }
+        if(!collected.isEmpty()) {
+            this.active.force(true);
+            this.writeIndex();
+            unused.addAll(collected);
+        }
+
+        for(var segment : unused) {
+            this.mapped.remove(segment);
+            try {
+                Files.deleteIfExists(SegmentStorage.path(segment));
+            } catch (IOException e) {
+                System.out.println("Unable to delete unused segment " + segment + " yet, retrying on the next write: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Maps a segment, reusing the previous mapping if it covers the given offset. Must hold either lock.
+     */
+    private MappedByteBuffer map(int segment, long end) throws IOException {
+        var buffer = this.mapped.get(segment);
+        if(buffer != null && buffer.capacity() >= end) {
+            return buffer;
+        }
+        if(segment == this.activeSegment) {
+            this.active.force(false);
+        }
+        try(var channel = FileChannel.open(SegmentStorage.path(segment), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        this.mapped.put(segment, buffer);
+        return buffer;
+    }
+
+    private ByteBuffer record(Location location) throws IOException {
+        var buffer = this.map(location.segment(), location.offset() + location.length());
+        return buffer.slice((int) location.offset(), location.length());
+    }
+
+    /**
+     * Whether a snapshot of the store exists.
+     */
+    public boolean contains(String name) {
+        return this.index.containsKey(name);
+    }
+
+    private <T> T withReadLock(IOSupplier<T> reader) {
+        this.lock.readLock().lock();
+        try {
+            return reader.get();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private interface IOSupplier<T> {
+        T get() throws IOException;
+    }
+
+    /**
+     * Decodes a whole store, verifying its checksum.
+     * @return The store, or null if it has no snapshot.
+     */
+    DbPersistence.LoadedStore read(String name, RegistryAccess access) {
+        return this.withReadLock(() -> {
+            var location = this.index.get(name);
+            if(location == null) {
+                return null;
+            }
+            var record = this.record(location);
+            var crc = new CRC32();
+            crc.update(record.duplicate());
+            var expectedCrc = this.map(location.segment(), location.offset()).getInt((int) location.offset() - 4);
+            if((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Snapshot of store `" + name + "` is corrupt");
+            }
+
+            var buf = new RegistryFriendlyByteBuf(Unpooled.wrappedBuffer(record), access);
+            DbCodecs.readString(buf);
+            var generation = buf.readLong();
+            var count = buf.readInt();
+            buf.skipBytes(count * 4);
+            var map = new Object2ObjectAVLTreeMap<String, RuntimeValue>();
+            for(int i = 0; i < count; i++) {
+                var key = DbCodecs.readString(buf);
+                map.put(key, DbCodecs.DYNAMIC_CODEC.decode(buf));
+            }
+            return new DbPersistence.LoadedStore(name, generation, DataStore.of(map));
+        });
+    }
+
+    /**
+     * Reads a single value from the snapshot of a store, without decoding the rest of it.
+     * @return The value, or null if the store or key does not exist.
+     */
+    public RuntimeValue readValue(String name, String key, RegistryAccess access) {
+        return this.withReadLock(() -> {
+            var location = this.index.get(name);
+            if(location == null) {
+                return null;
+            }
+            var buf = new RegistryFriendlyByteBuf(Unpooled.wrappedBuffer(this.record(location)), access);
+            DbCodecs.readString(buf);
+            buf.readLong();
+            var count = buf.readInt();
+            var table = buf.readerIndex();
+
+            int low = 0;
+            int high = count - 1;
+            while(low <= high) {
+                var mid = (low + high) >>> 1;
+                buf.readerIndex(buf.getInt(table + mid * 4));
+                var comparison = DbCodecs.readString(buf).compareTo(key);
+                if(comparison == 0) {
+                    return DbCodecs.DYNAMIC_CODEC.decode(buf);
+                } else if(comparison < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return null;
+        });
+    }
+
+    public void close() {
+        this.lock.writeLock().lock();
+        try {
+            this.active.force(true);
+            this.active.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.mapped.clear();
+            this.lock.writeLock().unlock();
+        }
+    }
+}
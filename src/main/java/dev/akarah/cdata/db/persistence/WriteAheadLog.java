@@ -0,0 +1,339 @@
+package dev.akarah.cdata.db.persistence;
+
+import com.google.common.collect.Sets;
+import dev.akarah.cdata.script.value.RuntimeValue;
+import io.netty.buffer.ByteBuf;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of every write to the persistent {@link dev.akarah.cdata.db.Database}, so a crash only loses
+ * the writes since the last flush instead of everything since the last save.
+ * <p>
+ * The log is split into generations, stored as `./saved/wal/<generation>.wal`. Compaction starts a new generation,
+ * writes every store as a snapshot tagged with that generation, and then deletes the older generations. On load,
+ * records from generations a store's snapshot already covers are skipped.
+ * <p>
+ * Each record is laid out as `[int length][int crc32][payload]`, where the payload holds the store name, the key and
+ * the value. Replay of a generation stops at the first torn or corrupt record.
+ */
+public class WriteAheadLog {
+    public static Path DIRECTORY = Paths.get("./saved/wal/");
+    static long FLUSH_INTERVAL_MS = 10;
+    static long COMPACTION_THRESHOLD_BYTES = 64L * 1024 * 1024;
+
+    private final RegistryAccess access;
+    private final ScheduledExecutorService flusher;
+    private final Object pendingLock = new Object();
+    /**
+     * Records not yet written to the channel, in a pooled direct buffer so flushing writes them without a copy.
+     */
+    private ByteBuf pending = DbCodecs.ALLOCATOR.directBuffer();
+    private FileChannel channel;
+    private long generation;
+    private long generationBytes;
+
+    private WriteAheadLog(RegistryAccess access, long generation) {
+        this.access = access;
+        this.openGeneration(generation);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "Database WAL flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(() -> {
+            try {
+                this.flush();
+            } catch (Exception e) {
+                System.out.println("Failed to flush the database write-ahead log: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts logging into a new generation.
+     * @param generation The generation to write into, which must be newer than any existing one.
+     */
+    public static WriteAheadLog open(RegistryAccess access, long generation) {
+        return new WriteAheadLog(access, generation);
+    }
+
+    private void openGeneration(long generation) {
+        try {
+            Files.createDirectories(DIRECTORY);
+            this.channel = FileChannel.open(
+                    WriteAheadLog.path(generation),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND
+            );
+            this.generation = generation;
+            this.generationBytes = this.channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Path path(long generation) {
+        return DIRECTORY.resolve(generation + ".wal");
+    }
+
+    /**
+     * Lists the generations currently on disk, oldest first.
+     */
+    public static List<Long> generations() {
+        if(!Files.isDirectory(DIRECTORY)) {
+            return List.of();
+        }
+        try(var files = Files.list(DIRECTORY)) {
+            return files
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(".wal"))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - ".wal".length())))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records a write. The value is encoded immediately, so later changes to it are not part of this record.
+     * Reaches the disk within {@link WriteAheadLog#FLUSH_INTERVAL_MS}.
+     */
+    public void append(String store, String key, RuntimeValue value) {
+        synchronized (this.pendingLock) {
+            var start = this.pending.writerIndex();
+            try {
+                var buf = new RegistryFriendlyByteBuf(this.pending, this.access);
+                buf.writeZero(8);
+                DbCodecs.writeString(buf, store);
+                DbCodecs.writeString(buf, key);
+                buf.writeBoolean(value != null);
+                if(value != null) {
+                    DbCodecs.DYNAMIC_CODEC.encode(buf, value);
+                }
+            } catch (RuntimeException e) {
+                this.pending.writerIndex(start);
+                throw e;
+            }
+            var length = this.pending.writerIndex() - start - 8;
+            var crc = new CRC32();
+            crc.update(this.pending.nioBuffer(start + 8, length));
+            this.pending.setInt(start, length);
+            this.pending.setInt(start + 4, (int) crc.getValue());
+        }
+    }
+
+    /**
+     * Writes every pending record to the current generation and forces it to disk. If that fails, the records stay
+     * pending and are written again by the next flush.
+     */
+    public synchronized void flush() {
+        ByteBuf bytes;
+        synchronized (this.pendingLock) {
+            if(!this.pending.isReadable()) {
+                return;
+            }
+            bytes = this.pending;
+            this.pending = DbCodecs.ALLOCATOR.directBuffer();
+        }
+        var length = bytes.readableBytes();
+        try {
+            var buffers = bytes.nioBuffers();
+            long remaining = length;
+            while(remaining > 0) {
+                remaining -= this.channel.write(buffers);
+            }
+            this.channel.force(false);
+        } catch (IOException e) {
+            this.recoverFailedFlush(bytes);
+            throw new UncheckedIOException(e);
+        }
+        this.generationBytes += length;
+        bytes.release();
+    }
+
+    /**
+     * Puts records that could not be flushed back in front of the pending ones, and cuts off whatever part of them
+     * reached the file, so no torn record ends up in front of later ones. If the file can't be cut, logging continues
+     * in a new generation instead, whose replay does not depend on the torn one.
+     */
+    private void recoverFailedFlush(ByteBuf unwritten) {
+        synchronized (this.pendingLock) {
+            var merged = DbCodecs.ALLOCATOR.directBuffer(unwritten.readableBytes() + this.pending.readableBytes());
+            merged.writeBytes(unwritten);
+            merged.writeBytes(this.pending);
+            unwritten.release();
+            this.pending.release();
+            this.pending = merged;
+        }
+        try {
+            this.channel.truncate(this.generationBytes);
+            this.channel.force(false);
+        } catch (IOException e) {
+            System.out.println("Unable to truncate write-ahead log generation " + this.generation + ", starting a new one: " + e.getMessage());
+            try {
+                this.channel.close();
+            } catch (IOException _) {
+
+            }
+            this.openGeneration(this.generation + 1);
+        }
+    }
+
+    /**
+     * Whether the current generation has grown large enough that it should be compacted into snapshots.
+     */
+    public synchronized boolean needsCompaction() {
+        return this.generationBytes >= COMPACTION_THRESHOLD_BYTES;
+    }
+
+    /**
+     * Flushes and closes the current generation, and starts a new one. Snapshots taken right after this cover every
+     * older generation.
+     * @return The new generation.
+     */
+    public synchronized long rotate() {
+        this.flush();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.openGeneration(this.generation + 1);
+        return this.generation;
+    }
+
+    /**
+     * Deletes every generation older than the given one, once snapshots cover them.
+     */
+    public void deleteBefore(long generation) {
+        for(var older : WriteAheadLog.generations()) {
+            if(older >= generation) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(WriteAheadLog.path(older));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        this.flusher.shutdown();
+        try {
+            this.flush();
+            this.channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            synchronized (this.pendingLock) {
+                this.pending.release();
+            }
+        }
+    }
+
+    public interface ReplayConsumer {
+        void accept(String store, String key, RuntimeValue value);
+    }
+
+    /**
+     * Replays every generation on disk, oldest first.
+     * @param coveredGenerations For each store, the generation its snapshot was taken at. Records from older
+     *                           generations are already part of the snapshot and are skipped.
+     * @param consumer Receives every record that is not covered by a snapshot.
+     * @return The newest generation on disk, or 0 if there are none.
+     */
+    public static long replay(RegistryAccess access, Map<String, Long> coveredGenerations, ReplayConsumer consumer) {
+        long newest = 0;
+        for(var generation : WriteAheadLog.generations()) {
+            newest = Math.max(newest, generation);
+            WriteAheadLog.forEachRecord(generation, payload -> {
+                var buf = new RegistryFriendlyByteBuf(payload, access);
+                var store = DbCodecs.readString(buf);
+                var key = DbCodecs.readString(buf);
+                var value = buf.readBoolean() ? DbCodecs.DYNAMIC_CODEC.decode(buf) : null;
+                if(generation >= coveredGenerations.getOrDefault(store, 0L)) {
+                    consumer.accept(store, key, value);
+                }
+            });
+        }
+        return newest;
+    }
+
+    /**
+     * The names of every store with records on disk, which have to be loaded before the log can be replayed.
+     */
+    public static Set<String> storesWithRecords() {
+        var stores = Sets.<String>newHashSet();
+        for(var generation : WriteAheadLog.generations()) {
+            WriteAheadLog.forEachRecord(generation, payload -> stores.add(DbCodecs.readString(new FriendlyByteBuf(payload))));
+        }
+        return stores;
+    }
+
+    /**
+     * Reads a generation into one pooled buffer and hands every intact record to the consumer as a slice of it. The
+     * slices are only valid until the consumer returns.
+     */
+    private static void forEachRecord(long generation, Consumer<ByteBuf> consumer) {
+        ByteBuf buffer;
+        try(var channel = FileChannel.open(WriteAheadLog.path(generation), StandardOpenOption.READ)) {
+            var size = (int) channel.size();
+            buffer = DbCodecs.ALLOCATOR.directBuffer(size);
+            try {
+                while(buffer.writerIndex() < size) {
+                    if(buffer.writeBytes(channel, buffer.writerIndex(), size - buffer.writerIndex()) < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                buffer.release();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        try {
+            while(buffer.readableBytes() >= 8) {
+                var length = buffer.readInt();
+                var expectedCrc = buffer.readInt();
+                if(length < 0 || length > buffer.readableBytes()) {
+                    System.out.println("Write-ahead log generation " + generation + " ends in a torn record, ignoring it.");
+                    return;
+                }
+                var payload = buffer.readSlice(length);
+                var crc = new CRC32();
+                crc.update(payload.nioBuffer());
+                if((int) crc.getValue() != expectedCrc) {
+                    System.out.println("Write-ahead log generation " + generation + " has a corrupt record, ignoring the rest of it.");
+                    return;
+                }
+                consumer.accept(payload);
+            }
+        } finally {
+            buffer.release();
+        }
+    }
+}
@@ -96,7 +96,7 @@ public class MinecraftServerMixin {
 
         System.out.println("Saving persistent data to file system...");
         var start = Instant.now().toEpochMilli();
-        DbPersistence.savePersistentDb(Main.SERVER.registryAccess()).join();
+        DbPersistence.closePersistentDb(Main.SERVER.registryAccess()).join();
         var end = Instant.now().toEpochMilli();
         System.out.println("All done! Finished in " + (end - start) + "ms");
     }
@@ -1,8 +1,11 @@
 package dev.akarah.cdata.mixin;
 
+import com.mojang.authlib.GameProfile;
+import dev.akarah.cdata.db.Database;
 import dev.akarah.cdata.registry.Resources;
 import dev.akarah.cdata.script.value.mc.REntity;
 import net.minecraft.network.Connection;
+import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.server.network.CommonListenerCookie;
 import net.minecraft.server.players.PlayerList;
@@ -10,9 +13,17 @@ import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.net.SocketAddress;
 
 @Mixin(PlayerList.class)
 public class PlayerListMixin {
+    @Inject(method = "canPlayerLogin", at = @At("HEAD"))
+    public void prefetchSaveData(SocketAddress socketAddress, GameProfile gameProfile, CallbackInfoReturnable<Component> cir) {
+        Database.save().prefetch("entity/" + gameProfile.getId());
+    }
+
     @Inject(method = "placeNewPlayer", at = @At("TAIL"))
     public void playerJoinEvent(Connection connection, ServerPlayer serverPlayer, CommonListenerCookie commonListenerCookie, CallbackInfo ci) {
         Resources.actionManager().performEvents("player.join", REntity.of(serverPlayer));
@@ -115,7 +115,7 @@ public class Resources {
         } else {
             Util.sneakyThrows(() -> {
                 Files.createFile(engineConfigPath);
-                Resources.CONFIG = new EngineConfig(StatsObject.of());
+                Resources.CONFIG = new EngineConfig(StatsObject.of(), 0, 600);
                 var json = EngineConfig.CODEC.encodeStart(JsonOps.INSTANCE, Resources.CONFIG).getOrThrow();
                 Files.writeString(engineConfigPath, json.toString());
                 return null;
@@ -23,7 +23,7 @@ public record ExecutesCommandNode(ResourceLocation action) implements CommandBui
     @Override
     public ArgumentBuilder<CommandSourceStack, ?> dispatch(ArgumentBuilder<CommandSourceStack, ?> node) {
         return node.executes(ctx -> {
-            var obj = RDict.create();
+            var obj = RDict.createStringKeyed();
             for(var argument : ((CommandContextMixin) ctx).arguments().entrySet()) {
                 switch (argument.getValue().getResult()) {
                     case String value ->
@@ -2,14 +2,21 @@ package dev.akarah.cdata.script.dsl;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
 import com.mojang.datafixers.util.Pair;
-import dev.akarah.cdata.registry.Resources;
+import dev.akarah.cdata.script.expr.Expression;
 import dev.akarah.cdata.script.expr.ast.SchemaExpression;
 import dev.akarah.cdata.script.expr.ast.TypeExpression;
+import dev.akarah.cdata.script.jvm.BytecodeCache;
 import dev.akarah.cdata.script.jvm.CodegenContext;
+import dev.akarah.cdata.script.jvm.CompiledCode;
+import dev.akarah.cdata.script.jvm.ScriptLinker;
+import dev.akarah.cdata.script.jvm.ScriptProfiler;
+import dev.akarah.cdata.script.jvm.ScriptWatchdog;
 import dev.akarah.cdata.script.type.StructType;
 import dev.akarah.cdata.script.type.Type;
 import dev.akarah.cdata.script.value.RBoolean;
+import dev.akarah.cdata.script.value.RStruct;
 import dev.akarah.cdata.script.value.RuntimeValue;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.resources.ResourceManager;
@@ -19,12 +26,46 @@ import java.io.IOException;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
 public class DslActionManager {
+    /**
+     * The amount of parameters every event is fired with, which must match the arguments its
+     * {@link DslActionManager#performEvents(String, RuntimeValue...)} call sites pass. Handlers are checked against it
+     * when compiling.
+     */
+    public static Map<String, Integer> EVENT_PARAMETER_COUNTS = Map.ofEntries(
+            Map.entry("server.tick", 0),
+            Map.entry("player.join", 1),
+            Map.entry("player.quit", 1),
+            Map.entry("player.tick", 1),
+            Map.entry("player.swap_hands", 1),
+            Map.entry("player.close_inventory", 1),
+            Map.entry("player.stat_tick", 2),
+            Map.entry("player.place_block", 2),
+            Map.entry("player.break_block", 2),
+            Map.entry("player.right_click_block", 2),
+            Map.entry("player.send_chat_message", 2),
+            Map.entry("player.attack_entity", 2),
+            Map.entry("player.kill_entity", 2),
+            Map.entry("player.hurt", 3),
+            Map.entry("entity.spawn", 1),
+            Map.entry("entity.tick", 1),
+            Map.entry("entity.die", 1),
+            Map.entry("entity.interact", 2),
+            Map.entry("entity.take_damage", 2),
+            Map.entry("item.left_click", 2),
+            Map.entry("item.right_click", 2),
+            Map.entry("item.menu_click", 2),
+            Map.entry("item.get_stats", 3)
+    );
+
     Map<String, String> rawDslPrograms = Maps.newHashMap();
     Map<String, List<DslToken>> rawDslTokens = Maps.newHashMap();
     Map<String, SchemaExpression> dslExpressions = Maps.newHashMap();
@@ -34,6 +75,7 @@ public class DslActionManager {
     Map<ResourceLocation, MethodHandle> methodHandles = Maps.newHashMap();
     Map<String, MethodHandle> namedMethodHandles = Maps.newHashMap();
     Class<?> codeClass;
+    CompiledCode compiledCode;
 
     public Map<String, SchemaExpression> expressions() {
         return this.dslExpressions;
@@ -61,8 +103,13 @@ public class DslActionManager {
 
     public void executeVoid(ResourceLocation name, RuntimeValue... arguments) {
         var mh = methodHandleByLocation(name);
+        var armed = ScriptWatchdog.arm();
+        var sample = ScriptProfiler.enter();
         try {
             mh.invokeWithArguments((Object[]) arguments);
+            if(sample != null) {
+                ScriptProfiler.exit(sample, "function/" + CodegenContext.resourceLocationToMethodName(name));
+            }
         } catch (Throwable e) {
             if(e.getMessage() == null) {
                 return;
@@ -72,13 +119,22 @@ public class DslActionManager {
             }
             System.out.println("Error executing script `" + name + "`: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            if(armed) {
+                ScriptWatchdog.disarm();
+            }
         }
     }
 
     public boolean executeBoolean(ResourceLocation name, RuntimeValue... arguments) {
         var mh = methodHandleByLocation(name);
+        var armed = ScriptWatchdog.arm();
+        var sample = ScriptProfiler.enter();
         try {
             var result = mh.invokeWithArguments((Object[]) arguments);
+            if(sample != null) {
+                ScriptProfiler.exit(sample, "function/" + CodegenContext.resourceLocationToMethodName(name));
+            }
             if(result instanceof RBoolean a) {
                 return a.javaValue();
             }
@@ -93,10 +149,21 @@ public class DslActionManager {
             System.out.println("Error executing script `" + name + "`: " + e.getMessage());
             e.printStackTrace();
             return true;
+        } finally {
+            if(armed) {
+                ScriptWatchdog.disarm();
+            }
         }
     }
 
     Map<String, List<ResourceLocation>> eventInterning = Maps.newHashMap();
+    Map<String, MethodHandle> eventInvokers = Maps.newHashMap();
+
+    private static final MethodHandle NO_HANDLERS = MethodHandles.dropArguments(
+            MethodHandles.constant(boolean.class, true),
+            0,
+            RuntimeValue[].class
+    );
 
     public void internEventTypes() {
         eventInterning.clear();
@@ -123,25 +190,279 @@ public class DslActionManager {
     }
 
     public boolean performEvents(String name, RuntimeValue... parameters) {
-        for(var f : functionsByEventType(name)) {
-            var result = this.executeBoolean(f, parameters);
-            if(!result) {
-                return false;
+        var invoker = this.eventInvokers.getOrDefault(name, NO_HANDLERS);
+        if(invoker == NO_HANDLERS) {
+            return true;
+        }
+        var armed = ScriptWatchdog.arm();
+        var sample = ScriptProfiler.enter();
+        try {
+            var result = (boolean) invoker.invokeExact(parameters);
+            if(sample != null) {
+                ScriptProfiler.exit(sample, "event/" + name);
+            }
+            return result;
+        } catch (Throwable e) {
+            System.out.println("Error dispatching event `" + name + "`: " + e.getMessage());
+            e.printStackTrace();
+            return true;
+        } finally {
+            if(armed) {
+                ScriptWatchdog.disarm();
             }
         }
+    }
+
+    /**
+     * Binds the fused dispatcher that {@link CodegenContext} emitted for each event as a `(RuntimeValue[]) -> boolean`
+     * method handle, so dispatching an event is a single exact invocation.
+     */
+    public void bindEventInvokers() {
+        this.eventInvokers.clear();
+        this.internEventTypes();
+
+        var lookup = MethodHandles.lookup();
+        var handlers = CodegenContext.eventHandlers(
+                this.dslExpressions.entrySet()
+                        .stream()
+                        .map(x -> Pair.of(x.getKey(), x.getValue()))
+                        .toList()
+        );
+        for(var event : handlers.entrySet()) {
+            var parameterCount = CodegenContext.eventParameterCount(event.getKey(), event.getValue());
+            try {
+                var dispatcher = lookup.findStatic(
+                        this.codeClass,
+                        CodegenContext.eventMethodName(event.getKey()),
+                        MethodType.methodType(boolean.class, Collections.<Class<?>>nCopies(parameterCount, RuntimeValue.class))
+                );
+                this.eventInvokers.put(event.getKey(), dispatcher.asSpreader(RuntimeValue[].class, parameterCount));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Called by compiled event dispatchers to interpret the value a handler returned.
+     * @return False if the handler cancelled the event.
+     */
+    public static boolean eventResult(RuntimeValue result) {
+        if(result instanceof RBoolean a) {
+            return a.javaValue();
+        }
         return true;
     }
 
+    /**
+     * Called by compiled event dispatchers when a handler throws, so the remaining handlers still run.
+     */
+    public static void reportHandlerFailure(Throwable e, String name) {
+        if(e.getMessage() == null) {
+            return;
+        }
+        System.out.println("Error executing script `" + name + "`: " + e.getMessage());
+        e.printStackTrace();
+    }
+
     public void callFunctions(List<ResourceLocation> functions, RuntimeValue... parameters) {
         for(var f : functions) {
             this.executeVoid(f, parameters);
         }
     }
 
+    /**
+     * Waits for a front end task, rethrowing the original exception so compile errors are reported as-is.
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Resolves struct types in rounds. Every round parses the remaining struct files in parallel against the types
+     * known so far, then merges the ones that succeeded in name order, so the result doesn't depend on scheduling.
+     */
+    private void resolveStructTypes(Executor executor) {
+        var pending = this.rawDslTokens.entrySet()
+                .stream()
+                .filter(entry -> entry.getValue().getFirst() instanceof DslToken.StructKeyword)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .collect(Collectors.toCollection(Lists::newArrayList));
+
+        while(!pending.isEmpty()) {
+            var knownTypes = Map.copyOf(this.dslTypes);
+            var futures = pending.stream()
+                    .map(name -> CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return DslParser.parseTopLevelExpression(this.rawDslTokens.get(name), knownTypes);
+                        } catch (Exception e) {
+                            System.out.println("Error during type instantiation, if the server starts ignore this:");
+                            System.out.println(e.getMessage());
+                            return null;
+                        }
+                    }, executor))
+                    .toList();
+
+            int counts = 0;
+            for(int i = 0; i < pending.size(); i++) {
+                if(await(futures.get(i)) instanceof TypeExpression(StructType alias)) {
+                    this.dslTypes.put(pending.get(i), alias);
+                    counts++;
+                }
+            }
+            if(counts == 0) {
+                break;
+            }
+            pending.removeIf(this.dslTypes::containsKey);
+        }
+    }
+
+    /**
+     * @return True if no struct changed since the last reload, so its struct types were reused.
+     */
+    private boolean resolveTypes(DslCompilationCache cache, Map<String, HashCode> structHashes, Executor executor) {
+        var cachedTypes = cache.types(structHashes);
+        if(cachedTypes.isPresent()) {
+            this.dslTypes.putAll(cachedTypes.get());
+        } else {
+            this.resolveStructTypes(executor);
+            cache.storeTypes(structHashes, this.dslTypes);
+        }
+        System.out.println(this.dslTypes.keySet());
+        return cachedTypes.isPresent();
+    }
+
+    /**
+     * Parses the functions whose file changed since the last reload, and reuses the parsed functions of the others.
+     * @param typesReused Whether the struct types are the ones earlier functions were parsed against.
+     */
+    private void parseFunctions(
+            Map<String, DslCompilationCache.CompiledFunction> previous,
+            Map<String, HashCode> sourceHashes,
+            boolean typesReused,
+            Executor executor
+    ) {
+        var names = this.rawDslTokens.entrySet()
+                .stream()
+                .filter(entry -> !(entry.getValue().getFirst() instanceof DslToken.StructKeyword))
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toList();
+
+        var futures = Maps.<String, CompletableFuture<Expression>>newHashMap();
+        for(var name : names) {
+            var cached = previous.get(name);
+            if(typesReused
+                    && cached != null
+                    && cached.expression() != null
+                    && cached.entry().sourceHash().equals(sourceHashes.get(name))) {
+                this.dslExpressions.put(name, cached.expression());
+            } else {
+                futures.put(name, CompletableFuture.supplyAsync(
+                        () -> DslParser.parseTopLevelExpression(this.rawDslTokens.get(name), this.dslTypes),
+                        executor
+                ));
+            }
+        }
+        for(var name : names) {
+            var future = futures.get(name);
+            if(future != null && await(future) instanceof SchemaExpression schemaExpression) {
+                this.dslExpressions.put(name, DslOptimizer.optimize(schemaExpression));
+            }
+        }
+    }
+
+    /**
+     * Compiles the functions whose source or dependencies changed since they were last compiled, and reuses the
+     * classes of every other function. The root class holding the event dispatchers is always compiled again, since
+     * it is small and depends on every function.
+     */
+    private void compileFunctions(
+            DslCompilationCache cache,
+            Map<String, DslCompilationCache.CompiledFunction> previous,
+            Map<String, HashCode> sourceHashes
+    ) {
+        var graph = new DslDependencyGraph(this.rawDslTokens, sourceHashes, this.dslTypes, this.dslExpressions);
+        var names = this.dslExpressions.keySet().stream().sorted().toList();
+
+        var reusedClasses = Maps.<String, Class<?>>newHashMap();
+        var restoredEntries = Maps.<String, BytecodeCache.Entry>newHashMap();
+        var stale = Lists.<String>newArrayList();
+        for(var name : names) {
+            var cached = previous.get(name);
+            if(cached == null
+                    || !cached.entry().sourceHash().equals(sourceHashes.get(name))
+                    || !graph.unchanged(cached.entry().dependencies())) {
+                stale.add(name);
+            } else if(cached.compiledClass() != null) {
+                reusedClasses.put(name, cached.compiledClass());
+            } else {
+                restoredEntries.put(name, cached.entry());
+            }
+        }
+
+        if(!restoredEntries.isEmpty()) {
+            var classes = Maps.<String, byte[]>newHashMap();
+            var classNames = Maps.<String, String>newHashMap();
+            restoredEntries.forEach((name, entry) -> {
+                classes.put(entry.className(), entry.bytes());
+                classNames.put(name, entry.className());
+            });
+            CodegenContext.defineCachedClasses(classes, classNames).ifPresentOrElse(
+                    restored -> reusedClasses.putAll(restored.functionClasses()),
+                    () -> stale.addAll(restoredEntries.keySet())
+            );
+        }
+        stale.sort(String::compareTo);
+        System.out.println("Compiling " + stale.size() + " of " + names.size() + " scripts");
+
+        var compilation = CodegenContext.initializeCompilation(
+                stale.stream().map(name -> Pair.of(name, this.dslExpressions.get(name))).toList(),
+                this.dslExpressions.entrySet()
+                        .stream()
+                        .map(x -> Pair.of(x.getKey(), x.getValue()))
+                        .toList(),
+                this.dslTypes
+        );
+        var compiled = CodegenContext.defineClasses(compilation.classes(), compilation.functionClasses());
+        var functionClasses = Maps.newHashMap(reusedClasses);
+        functionClasses.putAll(compiled.functionClasses());
+        this.codeClass = compiled.rootClass();
+        this.compiledCode = new CompiledCode(this.codeClass, functionClasses);
+
+        var functions = Maps.<String, DslCompilationCache.CompiledFunction>newHashMap();
+        for(var name : names) {
+            var className = compilation.functionClasses().get(name);
+            var entry = className == null
+                    ? previous.get(name).entry()
+                    : new BytecodeCache.Entry(
+                            sourceHashes.get(name),
+                            graph.fingerprints(name, compilation.functionDependencies().get(name)),
+                            className,
+                            compilation.persistable() ? compilation.classes().get(className) : null
+                    );
+            functions.put(name, new DslCompilationCache.CompiledFunction(
+                    entry,
+                    this.dslExpressions.get(name),
+                    functionClasses.get(name)
+            ));
+        }
+        cache.storeFunctions(functions, !stale.isEmpty());
+    }
+
     public CompletableFuture<Void> reloadWithManager(ResourceManager resourceManager, Executor executor) {
         return CompletableFuture.runAsync(
                 () -> {
                     Thread.currentThread().setContextClassLoader(this.getClass().getClassLoader());
+                    var sources = Maps.<ResourceLocation, String>newHashMap();
                     for(var resourceEntry : resourceManager.listResources("engine/dsl", rl -> rl.getPath().endsWith(".aka")).entrySet()) {
                         try(var inputStream = resourceEntry.getValue().open()) {
                             var bytes = inputStream.readAllBytes();
@@ -150,12 +471,7 @@ public class DslActionManager {
                             var key = resourceEntry.getKey().withPath(s ->
                                     s.replace(".aka", "")
                                             .replace("engine/dsl/", ""));
-                            var methodName = CodegenContext.resourceLocationToMethodName(key);
-                            this.resourceNames.put(methodName, key);
-                            this.rawDslPrograms.put(
-                                    methodName,
-                                    string
-                            );
+                            sources.put(key, string);
                         } catch (IOException e) {
                             this.rawDslPrograms.clear();
                             this.dslExpressions.clear();
@@ -163,76 +479,76 @@ public class DslActionManager {
                             throw new RuntimeException(e);
                         }
                     }
+                    this.loadSources(sources, executor);
+                },
+                executor
+        );
+    }
 
-                    for(var entry : this.rawDslPrograms.entrySet()) {
-                        var tokens = DslTokenizer.tokenize(this.resourceNames.get(entry.getKey()), entry.getValue()).getOrThrow();
-                        this.rawDslTokens.put(entry.getKey(), tokens);
-                    }
+    /**
+     * Compiles a set of scripts and binds their functions and events.
+     * This doesn't depend on a resource manager, so benchmarks can load scripts without a server.
+     * @param sources The source of every script, keyed by its location without the `engine/dsl/` prefix.
+     */
+    public void loadSources(Map<ResourceLocation, String> sources, Executor executor) {
+        for(var source : sources.entrySet()) {
+            var methodName = CodegenContext.resourceLocationToMethodName(source.getKey());
+            this.resourceNames.put(methodName, source.getKey());
+            this.rawDslPrograms.put(
+                    methodName,
+                    source.getValue()
+            );
+        }
 
-                    while(true) {
-                        int counts = 0;
-                        for(var entry : this.rawDslTokens.entrySet()) {
-                            if(!(entry.getValue().getFirst() instanceof DslToken.StructKeyword)) {
-                                continue;
-                            }
-                            if(this.dslTypes.containsKey(entry.getKey())) {
-                                continue;
-                            }
-
-                            try {
-                                var expression = DslParser.parseTopLevelExpression(entry.getValue(), this.dslTypes);
-
-                                if (expression instanceof TypeExpression(StructType alias)) {
-                                    this.dslTypes.put(entry.getKey(), alias);
-                                    counts++;
-                                }
-                            } catch (Exception e) {
-                                System.out.println("Error during type instantiation, if the server starts ignore this:");
-                                System.out.println(e.getMessage());
-                            }
-                        }
-                        if(counts == 0) {
-                            break;
-                        }
-                    }
-                    System.out.println(this.dslTypes.keySet());
-                    for(var entry : this.rawDslPrograms.entrySet()) {
-                        var tokens = DslTokenizer.tokenize(this.resourceNames.get(entry.getKey()), entry.getValue()).getOrThrow();
-                        var expression = DslParser.parseTopLevelExpression(tokens, this.dslTypes);
+        var cache = DslCompilationCache.INSTANCE;
+        cache.retain(this.rawDslPrograms.keySet());
 
-                        if(expression instanceof SchemaExpression schemaExpression) {
-                            this.dslExpressions.put(entry.getKey(), schemaExpression);
-                        }
-                    }
+        var sourceHashes = Maps.<String, HashCode>newHashMap();
+        var tokenFutures = Maps.<String, CompletableFuture<List<DslToken>>>newHashMap();
+        for(var entry : this.rawDslPrograms.entrySet()) {
+            var hash = DslCompilationCache.hash(entry.getValue());
+            sourceHashes.put(entry.getKey(), hash);
+            tokenFutures.put(entry.getKey(), CompletableFuture.supplyAsync(
+                    () -> cache.tokens(entry.getKey(), this.resourceNames.get(entry.getKey()), entry.getValue(), hash),
+                    executor
+            ));
+        }
 
-                    this.codeClass = CodegenContext.initializeCompilation(
-                            this.dslExpressions.entrySet()
-                                    .stream()
-                                    .map(x -> Pair.of(x.getKey(), x.getValue()))
-                                    .toList(),
-                            this.dslTypes
-                    );
+        var structHashes = Maps.<String, HashCode>newHashMap();
+        for(var entry : tokenFutures.entrySet()) {
+            var tokens = await(entry.getValue());
+            this.rawDslTokens.put(entry.getKey(), tokens);
+            if(tokens.getFirst() instanceof DslToken.StructKeyword) {
+                structHashes.put(entry.getKey(), sourceHashes.get(entry.getKey()));
+            }
+        }
 
-                    var lookup = MethodHandles.lookup();
+        var typesReused = this.resolveTypes(cache, structHashes, executor);
+        var previous = cache.functions();
+        this.parseFunctions(previous, sourceHashes, typesReused, executor);
+        this.compileFunctions(cache, previous, sourceHashes);
+        RStruct.registerLayouts(this.dslTypes);
 
-                    try {
-                        this.namedMethodHandles.put("$static_init", lookup.findStatic(codeClass, "$static_init", MethodType.methodType(void.class)));
+        var lookup = MethodHandles.lookup();
 
-                        for(var element : this.dslExpressions.entrySet()) {
-                            var resourceName = Resources.actionManager().resourceNames().get(element.getKey());
-                            var methodHandle = lookup.findStatic(
-                                    codeClass,
-                                    element.getKey(),
-                                    element.getValue().methodType()
-                            );
-                            this.namedMethodHandles.put(element.getKey(), methodHandle);
-                            this.methodHandles.put(resourceName, methodHandle);
-                        }
-                    } catch (NoSuchMethodException | IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                executor
-        );
+        try {
+            this.namedMethodHandles.put("$static_init", lookup.findStatic(codeClass, "$static_init", MethodType.methodType(void.class)));
+
+            for(var element : this.dslExpressions.entrySet()) {
+                var resourceName = this.resourceNames.get(element.getKey());
+                var methodHandle = lookup.findStatic(
+                        this.compiledCode.classOf(element.getKey()),
+                        element.getKey(),
+                        element.getValue().methodType()
+                );
+                this.namedMethodHandles.put(element.getKey(), methodHandle);
+                this.methodHandles.put(resourceName, methodHandle);
+            }
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        ScriptLinker.link(Maps.filterKeys(this.namedMethodHandles, this.dslExpressions::containsKey));
+
+        this.bindEventInvokers();
     }
 }
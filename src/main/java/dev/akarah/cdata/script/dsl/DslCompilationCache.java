@@ -0,0 +1,141 @@
+package dev.akarah.cdata.script.dsl;
+
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import dev.akarah.cdata.script.expr.ast.SchemaExpression;
+import dev.akarah.cdata.script.jvm.BytecodeCache;
+import dev.akarah.cdata.script.type.StructType;
+import net.minecraft.resources.ResourceLocation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Keeps the results of previous script compilations alive across reloads, keyed by the content hash of each source file.
+ * <p>
+ * Tokens only depend on their own file, so they are reused whenever that file is unchanged. Struct types are reused
+ * while no struct source changed, and so are the parsed functions of unchanged files. Every function is compiled into
+ * a class of its own, which is reused while its source and the fingerprints of its dependencies from
+ * {@link DslDependencyGraph} match. After a restart, those classes are read back from the {@link BytecodeCache}.
+ */
+public class DslCompilationCache {
+    public static final DslCompilationCache INSTANCE = new DslCompilationCache();
+
+    record CachedTokens(HashCode hash, List<DslToken> tokens) {
+
+    }
+
+    /**
+     * A function compiled by an earlier reload.
+     * @param entry Its class, and the source and dependencies it was compiled against. The class bytes are null if
+     *              they can't be restored after a restart.
+     * @param expression Its parsed body, or null if it was read from the bytecode cache.
+     * @param compiledClass The class it was compiled into, or null if it was read from the bytecode cache.
+     */
+    public record CompiledFunction(
+            BytecodeCache.Entry entry,
+            SchemaExpression expression,
+            Class<?> compiledClass
+    ) {
+
+    }
+
+    Map<String, CachedTokens> tokens = Maps.newConcurrentMap();
+    Map<String, HashCode> structHashes = Map.of();
+    Map<String, StructType> types = Map.of();
+    Map<String, CompiledFunction> functions = Map.of();
+    boolean readBytecodeCache = false;
+
+    public static HashCode hash(String source) {
+        return Hashing.sha256().hashString(source, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tokenizes a source file, reusing the tokens from a previous reload if its contents did not change.
+     * Safe to call for different files concurrently.
+     * @param name The method name of the file.
+     * @param location The resource location of the file, used for error spans.
+     * @param source The contents of the file.
+     * @param hash The content hash of the file.
+     * @return The tokens of the file.
+     */
+    public List<DslToken> tokens(String name, ResourceLocation location, String source, HashCode hash) {
+        var cached = this.tokens.get(name);
+        if(cached != null && cached.hash().equals(hash)) {
+            return cached.tokens();
+        }
+        var tokens = DslTokenizer.tokenize(location, source).getOrThrow();
+        this.tokens.put(name, new CachedTokens(hash, tokens));
+        return tokens;
+    }
+
+    /**
+     * Drops the cached tokens and functions of files that no longer exist.
+     * @param names The names of every file that is currently loaded.
+     */
+    public synchronized void retain(Set<String> names) {
+        this.tokens.keySet().retainAll(names);
+        this.functions = Maps.filterKeys(this.functions, names::contains);
+    }
+
+    /**
+     * Forgets every previous compilation, so the next reload starts from scratch.
+     */
+    public synchronized void clear() {
+        this.tokens.clear();
+        this.structHashes = Map.of();
+        this.types = Map.of();
+        this.functions = Map.of();
+        this.readBytecodeCache = false;
+    }
+
+    public synchronized Optional<Map<String, StructType>> types(Map<String, HashCode> structHashes) {
+        if(!this.structHashes.equals(structHashes)) {
+            return Optional.empty();
+        }
+        return Optional.of(this.types);
+    }
+
+    public synchronized void storeTypes(Map<String, HashCode> structHashes, Map<String, StructType> types) {
+        this.structHashes = Map.copyOf(structHashes);
+        this.types = Map.copyOf(types);
+    }
+
+    /**
+     * The functions compiled by the previous reload. On the first reload, these are read from the bytecode cache.
+     * @return The functions, keyed by method name.
+     */
+    public synchronized Map<String, CompiledFunction> functions() {
+        if(!this.readBytecodeCache) {
+            this.readBytecodeCache = true;
+            var functions = Maps.newHashMap(this.functions);
+            BytecodeCache.load(BytecodeCache.key())
+                    .forEach((name, entry) -> functions.putIfAbsent(name, new CompiledFunction(entry, null, null)));
+            this.functions = functions;
+        }
+        return this.functions;
+    }
+
+    /**
+     * Replaces the functions of the previous reload, and writes them to the bytecode cache if any were compiled.
+     * @param functions Every loaded function, keyed by method name.
+     * @param compiledAny Whether any of them were compiled by this reload.
+     */
+    public synchronized void storeFunctions(Map<String, CompiledFunction> functions, boolean compiledAny) {
+        this.functions = Map.copyOf(functions);
+        if(!compiledAny) {
+            return;
+        }
+        var entries = Maps.<String, BytecodeCache.Entry>newHashMap();
+        functions.forEach((name, function) -> {
+            if(function.entry().bytes() != null) {
+                entries.put(name, function.entry());
+            }
+        });
+        BytecodeCache.save(BytecodeCache.key(), entries);
+    }
+}
@@ -0,0 +1,179 @@
+package dev.akarah.cdata.script.dsl;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import dev.akarah.cdata.script.expr.ast.SchemaExpression;
+import dev.akarah.cdata.script.type.StructType;
+import dev.akarah.cdata.script.type.Type;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Fingerprints what the compiled code of a script depends on besides its own source, so a reload only recompiles
+ * scripts whose dependencies changed.
+ * <p>
+ * A compiled function depends on the structs its file names, and on every user function it looked up while resolving
+ * its calls, including names that did not exist, since adding such a function changes what the call resolves to.
+ * A struct's fingerprint covers its source and the structs it names, transitively, since compiled code accesses their
+ * fields by index. A function's fingerprint covers its parameter and return types, including the structs in them.
+ */
+public class DslDependencyGraph {
+    static HashCode ABSENT = HashCode.fromInt(0);
+
+    Map<String, List<DslToken>> tokens;
+    Map<String, HashCode> sourceHashes;
+    Map<String, StructType> types;
+    Map<String, SchemaExpression> expressions;
+    Map<String, String> structsByTypeName = Maps.newHashMap();
+    Map<String, HashCode> structFingerprints = Maps.newHashMap();
+
+    /**
+     * @param tokens The tokens of every script, keyed by method name.
+     * @param sourceHashes The content hash of every script, keyed by method name.
+     * @param types The struct types, keyed by the method name of the script defining them.
+     * @param expressions The parsed functions, keyed by method name.
+     */
+    public DslDependencyGraph(
+            Map<String, List<DslToken>> tokens,
+            Map<String, HashCode> sourceHashes,
+            Map<String, StructType> types,
+            Map<String, SchemaExpression> expressions
+    ) {
+        this.tokens = tokens;
+        this.sourceHashes = sourceHashes;
+        this.types = types;
+        this.expressions = expressions;
+        types.forEach((key, type) -> this.structsByTypeName.put(type.name(), key));
+    }
+
+    public static String struct(String key) {
+        return "struct:" + key;
+    }
+
+    public static String function(String name) {
+        return "fn:" + name;
+    }
+
+    /**
+     * The structs a script names, which the parser resolves its type and struct literal identifiers against.
+     * @param name The method name of the script.
+     * @return The keys of the structs.
+     */
+    public Set<String> namedStructs(String name) {
+        var structs = Sets.<String>newTreeSet();
+        for(var token : this.tokens.getOrDefault(name, List.of())) {
+            if(token instanceof DslToken.Identifier identifier) {
+                var key = identifier.identifier().replace(".", "_");
+                if(this.types.containsKey(key)) {
+                    structs.add(key);
+                }
+            }
+        }
+        return structs;
+    }
+
+    /**
+     * Fingerprints the dependencies of a script.
+     * @param name The method name of the script.
+     * @param functions The user functions it looked up while being compiled.
+     * @return The fingerprint of each dependency, keyed by {@link DslDependencyGraph#struct(String)} or
+     *         {@link DslDependencyGraph#function(String)}.
+     */
+    public Map<String, HashCode> fingerprints(String name, Collection<String> functions) {
+        var fingerprints = Maps.<String, HashCode>newHashMap();
+        for(var struct : this.namedStructs(name)) {
+            fingerprints.put(DslDependencyGraph.struct(struct), this.structFingerprint(struct));
+        }
+        for(var function : functions) {
+            fingerprints.put(DslDependencyGraph.function(function), this.functionFingerprint(function));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * @param fingerprints Fingerprints from {@link DslDependencyGraph#fingerprints(String, Collection)}, possibly
+     *                     computed by an earlier reload.
+     * @return True if none of the dependencies changed since.
+     */
+    public boolean unchanged(Map<String, HashCode> fingerprints) {
+        for(var entry : fingerprints.entrySet()) {
+            var key = entry.getKey();
+            var current = key.startsWith("struct:")
+                    ? this.structFingerprint(key.substring("struct:".length()))
+                    : this.functionFingerprint(key.substring("fn:".length()));
+            if(!current.equals(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public HashCode structFingerprint(String key) {
+        if(!this.types.containsKey(key)) {
+            return ABSENT;
+        }
+        var cached = this.structFingerprints.get(key);
+        if(cached != null) {
+            return cached;
+        }
+
+        var closure = new TreeSet<String>();
+        var pending = Sets.newHashSet(key);
+        while(!pending.isEmpty()) {
+            var next = pending.iterator().next();
+            pending.remove(next);
+            if(closure.add(next)) {
+                pending.addAll(this.namedStructs(next));
+            }
+        }
+        var hasher = Hashing.sha256().newHasher();
+        for(var struct : closure) {
+            hasher.putString(struct, StandardCharsets.UTF_8);
+            hasher.putBytes(this.sourceHashes.get(struct).asBytes());
+        }
+        var fingerprint = hasher.hash();
+        this.structFingerprints.put(key, fingerprint);
+        return fingerprint;
+    }
+
+    public HashCode functionFingerprint(String name) {
+        var expression = this.expressions.get(name);
+        if(expression == null) {
+            return ABSENT;
+        }
+        var hasher = Hashing.sha256().newHasher();
+        for(var parameter : expression.typeSet().parameters()) {
+            hasher.putString(parameter.getClass().getSimpleName(), StandardCharsets.UTF_8);
+            this.putType(hasher, parameter.typePattern());
+        }
+        hasher.putString("->", StandardCharsets.UTF_8);
+        this.putType(hasher, expression.typeSet().returns());
+        return hasher.hash();
+    }
+
+    private void putType(Hasher hasher, Type<?> type) {
+        hasher.putString(type.verboseTypeName(), StandardCharsets.UTF_8);
+        this.putStructs(hasher, type);
+    }
+
+    private void putStructs(Hasher hasher, Type<?> type) {
+        if(type == null) {
+            return;
+        }
+        if(type.flatten() instanceof StructType struct) {
+            var key = this.structsByTypeName.get(struct.name());
+            hasher.putBytes(key == null ? ABSENT.asBytes() : this.structFingerprint(key).asBytes());
+        }
+        for(var subtype : type.subtypes()) {
+            this.putStructs(hasher, subtype);
+        }
+    }
+}
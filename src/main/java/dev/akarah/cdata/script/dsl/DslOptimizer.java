@@ -0,0 +1,228 @@
+package dev.akarah.cdata.script.dsl;
+
+import com.mojang.datafixers.util.Pair;
+import dev.akarah.cdata.script.expr.Expression;
+import dev.akarah.cdata.script.expr.SpannedExpression;
+import dev.akarah.cdata.script.expr.ast.*;
+import dev.akarah.cdata.script.expr.ast.func.LambdaExpression;
+import dev.akarah.cdata.script.expr.ast.func.LateResolvedFunctionCall;
+import dev.akarah.cdata.script.expr.ast.operation.*;
+import dev.akarah.cdata.script.expr.ast.value.*;
+import dev.akarah.cdata.script.value.RBoolean;
+import dev.akarah.cdata.script.value.RNumber;
+import dev.akarah.cdata.script.value.RString;
+import dev.akarah.cdata.script.value.RuntimeValue;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Simplifies parsed scripts before they reach {@link dev.akarah.cdata.script.jvm.CodegenContext}.
+ * <p>
+ * Operations whose operands are all literals are computed ahead of time, `if` statements with a literal condition are
+ * replaced by the branch that would run, and `&&`/`||` with a literal operand are reduced. Folding goes through the same
+ * runtime functions compiled code would call, so folded results are identical to what the script produced before.
+ * <p>
+ * This runs on the raw parsed tree, before any call is resolved, so it only rewrites nodes it can prove constant
+ * without knowing types.
+ */
+public class DslOptimizer {
+    public static SchemaExpression optimize(SchemaExpression schema) {
+        return new SchemaExpression(
+                schema.typeSet(),
+                DslOptimizer.optimizeBlock(schema.body()),
+                schema.eventName(),
+                schema.keywordSpan()
+        );
+    }
+
+    private static AllOfAction optimizeBlock(AllOfAction block) {
+        return new AllOfAction(block.actions().stream().map(DslOptimizer::optimize).toList());
+    }
+
+    private static Optional<Expression> optimizeOptional(Optional<Expression> expression) {
+        return expression.map(DslOptimizer::optimize);
+    }
+
+    public static Expression optimize(Expression expression) {
+        return switch (expression) {
+            case SpannedExpression<?> spanned -> {
+                var inner = DslOptimizer.optimize(spanned.expression());
+                if(inner instanceof SpannedExpression<?>) {
+                    yield inner;
+                }
+                yield new SpannedExpression<>(inner, spanned.span());
+            }
+            case AllOfAction allOfAction -> DslOptimizer.optimizeBlock(allOfAction);
+            case IfAction ifAction -> DslOptimizer.optimizeIf(ifAction);
+            case RepeatTimesAction repeat -> new RepeatTimesAction(
+                    DslOptimizer.optimize(repeat.times()),
+                    DslOptimizer.optimize(repeat.perform()),
+                    repeat.span()
+            );
+            case ForEachAction forEach -> new ForEachAction(
+                    DslOptimizer.optimize(forEach.list()),
+                    forEach.variableName(),
+                    DslOptimizer.optimize(forEach.block()),
+                    forEach.span()
+            );
+            case SetLocalAction setLocal -> new SetLocalAction(
+                    setLocal.variable(),
+                    setLocal.typeHint(),
+                    DslOptimizer.optimize(setLocal.value()),
+                    setLocal.span()
+            );
+            case ReturnAction returnAction -> returnAction.value() == null
+                    ? returnAction
+                    : new ReturnAction(DslOptimizer.optimize(returnAction.value()));
+            case LambdaExpression lambda -> new LambdaExpression(
+                    lambda.typeSet(),
+                    DslOptimizer.optimizeBlock(lambda.body()),
+                    lambda.keywordSpan()
+            );
+            case AsyncAction async -> new AsyncAction(
+                    (LambdaExpression) DslOptimizer.optimize(async.compute()),
+                    (LambdaExpression) DslOptimizer.optimize(async.then()),
+                    async.span()
+            );
+            case CastExpression cast -> new CastExpression(DslOptimizer.optimize(cast.base()), cast.cast());
+            case InlineListExpression list -> new InlineListExpression(
+                    list.expressions().stream().map(DslOptimizer::optimize).toList(),
+                    list.span()
+            );
+            case InlineDictExpression dict -> new InlineDictExpression(
+                    dict.expressions().stream()
+                            .map(pair -> Pair.of(DslOptimizer.optimize(pair.getFirst()), DslOptimizer.optimize(pair.getSecond())))
+                            .toList(),
+                    dict.span()
+            );
+            case InlineStructExpression struct -> new InlineStructExpression(
+                    struct.name(),
+                    struct.expressions().stream()
+                            .map(pair -> Pair.of(pair.getFirst(), DslOptimizer.optimize(pair.getSecond())))
+                            .toList(),
+                    struct.span()
+            );
+            case AndExpression and -> DslOptimizer.optimizeAnd(DslOptimizer.optimize(and.lhs()), DslOptimizer.optimize(and.rhs()));
+            case OrExpression or -> DslOptimizer.optimizeOr(DslOptimizer.optimize(or.lhs()), DslOptimizer.optimize(or.rhs()));
+            case EqualToExpression equalTo -> DslOptimizer.optimizeEquality(
+                    DslOptimizer.optimize(equalTo.lhs()),
+                    DslOptimizer.optimize(equalTo.rhs())
+            );
+            case GreaterThanExpression greaterThan -> {
+                var lhs = DslOptimizer.optimize(greaterThan.lhs());
+                var rhs = DslOptimizer.optimize(greaterThan.rhs());
+                if(lhs.flatten() instanceof NumberExpression(double l) && rhs.flatten() instanceof NumberExpression(double r)) {
+                    yield new BooleanExpression(l > r);
+                }
+                yield new GreaterThanExpression(lhs, rhs);
+            }
+            case LessThanExpression lessThan -> {
+                var lhs = DslOptimizer.optimize(lessThan.lhs());
+                var rhs = DslOptimizer.optimize(lessThan.rhs());
+                if(lhs.flatten() instanceof NumberExpression(double l) && rhs.flatten() instanceof NumberExpression(double r)) {
+                    yield new BooleanExpression(l < r);
+                }
+                yield new LessThanExpression(lhs, rhs);
+            }
+            case LateResolvedFunctionCall call -> DslOptimizer.optimizeCall(call);
+            default -> expression;
+        };
+    }
+
+    private static Expression optimizeIf(IfAction ifAction) {
+        var condition = DslOptimizer.optimize(ifAction.condition());
+        var then = DslOptimizer.optimize(ifAction.then());
+        var orElse = DslOptimizer.optimizeOptional(ifAction.orElse());
+        if(condition.flatten() instanceof BooleanExpression(boolean value)) {
+            // `if` statements are their own break target, so a branch that breaks out of them can't be inlined
+            var taken = value ? Optional.of(then) : orElse;
+            if(taken.map(DslOptimizer::jumpsToEnclosingFrame).orElse(false)) {
+                return new IfAction(condition, then, orElse);
+            }
+            return taken.orElseGet(() -> new AllOfAction(List.of()));
+        }
+        return new IfAction(condition, then, orElse);
+    }
+
+    private static boolean jumpsToEnclosingFrame(Expression expression) {
+        return switch (expression.flatten()) {
+            case BreakAction _, ContinueAction _ -> true;
+            case AllOfAction allOfAction -> allOfAction.actions().stream().anyMatch(DslOptimizer::jumpsToEnclosingFrame);
+            default -> false;
+        };
+    }
+
+    private static Expression optimizeAnd(Expression lhs, Expression rhs) {
+        if(lhs.flatten() instanceof BooleanExpression(boolean l)) {
+            if(!l) {
+                return new BooleanExpression(false);
+            }
+            if(rhs.flatten() instanceof BooleanExpression) {
+                return rhs;
+            }
+        }
+        return new AndExpression(lhs, rhs);
+    }
+
+    private static Expression optimizeOr(Expression lhs, Expression rhs) {
+        if(lhs.flatten() instanceof BooleanExpression(boolean l)) {
+            if(l) {
+                return new BooleanExpression(true);
+            }
+            if(rhs.flatten() instanceof BooleanExpression) {
+                return rhs;
+            }
+        }
+        return new OrExpression(lhs, rhs);
+    }
+
+    private static Expression optimizeEquality(Expression lhs, Expression rhs) {
+        var l = DslOptimizer.literal(lhs);
+        var r = DslOptimizer.literal(rhs);
+        if(l.isPresent() && r.isPresent()) {
+            return new BooleanExpression(l.get().equals(r.get()));
+        }
+        return new EqualToExpression(lhs, rhs);
+    }
+
+    private static Expression optimizeCall(LateResolvedFunctionCall call) {
+        var parameters = call.parameters().stream().map(DslOptimizer::optimize).toList();
+        if(parameters.size() == 2) {
+            var folded = DslOptimizer.foldBinary(call.functionName(), parameters.getFirst(), parameters.get(1));
+            if(folded.isPresent()) {
+                return new SpannedExpression<>(folded.get(), call.span());
+            }
+        }
+        return new LateResolvedFunctionCall(call.functionName(), parameters, call.span());
+    }
+
+    private static Optional<Expression> foldBinary(String functionName, Expression lhs, Expression rhs) {
+        if(lhs.flatten() instanceof NumberExpression(double l) && rhs.flatten() instanceof NumberExpression(double r)) {
+            return Optional.ofNullable(switch (functionName) {
+                case "add" -> new NumberExpression(l + r);
+                case "sub" -> new NumberExpression(l - r);
+                case "mul" -> new NumberExpression(l * r);
+                case "div" -> new NumberExpression(l / r);
+                case "rem" -> new NumberExpression(l % r);
+                default -> null;
+            });
+        }
+        if(functionName.equals("add") && lhs.flatten() instanceof StringExpression(String l)) {
+            return DslOptimizer.literal(rhs).map(r -> new StringExpression(RString.add(RString.of(l), r).javaValue()));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the runtime value a literal expression evaluates to, if it is one.
+     */
+    private static Optional<RuntimeValue> literal(Expression expression) {
+        return Optional.ofNullable(switch (expression.flatten()) {
+            case NumberExpression(double value) -> RNumber.of(value);
+            case StringExpression(String value) -> RString.of(value);
+            case BooleanExpression(boolean value) -> RBoolean.of(value);
+            default -> null;
+        });
+    }
+}
@@ -24,6 +24,7 @@ import java.util.Optional;
 import java.util.function.Function;
 
 import dev.akarah.cdata.script.expr.ast.func.JvmFunctionAction;
+import dev.akarah.cdata.script.expr.ast.func.LambdaExpression;
 import dev.akarah.cdata.script.jvm.CodegenUtil;
 import dev.akarah.cdata.script.value.RBoolean;
 import net.minecraft.client.renderer.texture.Stitcher;
@@ -253,6 +254,9 @@ public class DslParser {
         if(this.peek() instanceof DslToken.ForeachKeyword) {
             return parseForEach();
         }
+        if(this.atAsyncStatement()) {
+            return parseAsync();
+        }
         if(this.peek() instanceof DslToken.BreakKeyword) {
             expect(DslToken.BreakKeyword.class);
             return new BreakAction();
@@ -280,6 +284,63 @@ public class DslParser {
         return new ForEachAction(listExpr, variableName.identifier(), block, kw.span());
     }
 
+    /**
+     * `async` and `then` are only keywords where an `async` statement starts, so scripts can still use them as names.
+     * Since `->` also calls methods, `async->` only starts a statement when a result type follows it: `function`,
+     * `struct`, or a name directly followed by `{` or `[`. So `async->add(x)` calls `add` on a local named `async`.
+     */
+    private boolean atAsyncStatement() {
+        if(!(this.peek() instanceof DslToken.Identifier identifier) || !identifier.identifier().equals("async")) {
+            return false;
+        }
+        var next = this.peek(1);
+        if(next instanceof DslToken.OpenBrace) {
+            return true;
+        }
+        if(!(next instanceof DslToken.ArrowSymbol)) {
+            return false;
+        }
+        return switch (this.peek(2)) {
+            case DslToken.FunctionKeyword _, DslToken.StructKeyword _ -> true;
+            case DslToken.Identifier _ -> this.peek(3) instanceof DslToken.OpenBrace || this.peek(3) instanceof DslToken.OpenBracket;
+            case null, default -> false;
+        };
+    }
+
+    private DslToken peek(int offset) {
+        return this.index + offset < this.tokens.size() ? this.tokens.get(this.index + offset) : null;
+    }
+
+    public AsyncAction parseAsync() {
+        var kw = expect(DslToken.Identifier.class);
+        Type<?> resultType = Type.void_();
+        if(peek() instanceof DslToken.ArrowSymbol) {
+            expect(DslToken.ArrowSymbol.class);
+            resultType = parseType();
+        }
+        var compute = parseBlock();
+
+        var thenKw = expect(DslToken.Identifier.class);
+        if(!thenKw.identifier().equals("then")) {
+            throw new ParsingException("Expected `then` after an `async` block, but instead found `" + thenKw.identifier() + "`", thenKw.span());
+        }
+        var thenTypeSet = ExpressionTypeSet.builder("async_then");
+        if(peek() instanceof DslToken.Identifier resultName) {
+            expect(DslToken.Identifier.class);
+            if(resultType.flatten() instanceof VoidType) {
+                throw new ParsingException("An `async` block must declare its result type with `->` to pass a result to `then`.", resultName.span());
+            }
+            thenTypeSet.required(resultName.identifier(), resultType);
+        }
+        var then = parseBlock();
+
+        return new AsyncAction(
+                new LambdaExpression(ExpressionTypeSet.builder("async").returns(resultType).build(), compute, kw.span()),
+                new LambdaExpression(thenTypeSet.build(), then, thenKw.span()),
+                kw.span()
+        );
+    }
+
     public Expression parseValue() {
         return this.parseBooleanOperands();
     }
@@ -289,7 +350,7 @@ public class DslParser {
         var times = parseValue();
         var block = parseBlock();
 
-        return new SpannedExpression<>(new RepeatTimesAction(times, block), kw.span());
+        return new SpannedExpression<>(new RepeatTimesAction(times, block, kw.span()), kw.span());
     }
 
     public Expression parseIf() {
@@ -0,0 +1,10 @@
+package dev.akarah.cdata.script.exception;
+
+/**
+ * Thrown from inside a compiled loop when the script running it has exceeded its time budget.
+ */
+public class ScriptTimeoutException extends RuntimeException {
+    public ScriptTimeoutException(String message) {
+        super(message);
+    }
+}
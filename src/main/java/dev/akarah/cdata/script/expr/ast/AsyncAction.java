@@ -0,0 +1,47 @@
+package dev.akarah.cdata.script.expr.ast;
+
+import dev.akarah.cdata.script.exception.SpanData;
+import dev.akarah.cdata.script.expr.Expression;
+import dev.akarah.cdata.script.expr.ast.func.LambdaExpression;
+import dev.akarah.cdata.script.jvm.CodegenContext;
+import dev.akarah.cdata.script.jvm.CodegenUtil;
+import dev.akarah.cdata.script.jvm.ScriptAsync;
+import dev.akarah.cdata.script.type.Type;
+import dev.akarah.cdata.script.value.RFunction;
+
+import java.lang.constant.MethodTypeDesc;
+import java.util.List;
+
+/**
+ * `async -> T { ... } then result { ... }`. The first block runs on {@link ScriptAsync}'s pool, and the `then` block
+ * runs on the server thread with its result on a later tick.
+ */
+public record AsyncAction(
+        LambdaExpression compute,
+        LambdaExpression then,
+        SpanData span
+) implements Expression {
+    @Override
+    public void compile(CodegenContext ctx) {
+        ctx.compileAsync(this.span, () -> this.compute.compile(ctx, true));
+        ctx.pushValue(this.then)
+                .constant(this.span.debugInfo().toString())
+                .invokeStatic(
+                        CodegenUtil.ofClass(ScriptAsync.class),
+                        "submit",
+                        MethodTypeDesc.of(
+                                CodegenUtil.ofVoid(),
+                                List.of(
+                                        CodegenUtil.ofClass(RFunction.class),
+                                        CodegenUtil.ofClass(RFunction.class),
+                                        CodegenUtil.ofClass(String.class)
+                                )
+                        )
+                );
+    }
+
+    @Override
+    public Type<?> type(CodegenContext ctx) {
+        return Type.void_();
+    }
+}
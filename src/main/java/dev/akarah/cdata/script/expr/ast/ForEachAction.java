@@ -8,12 +8,9 @@ import dev.akarah.cdata.script.jvm.CodegenContext;
 import dev.akarah.cdata.script.type.ListType;
 import dev.akarah.cdata.script.type.Type;
 import dev.akarah.cdata.script.value.RList;
-import dev.akarah.cdata.script.value.RuntimeValue;
 
 import java.lang.classfile.TypeKind;
 import java.lang.constant.MethodTypeDesc;
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 public record ForEachAction(
@@ -24,7 +21,10 @@ public record ForEachAction(
 ) implements Expression {
     @Override
     public void compile(CodegenContext ctx) {
-        var local = ctx.bytecodeUnsafe().allocateLocal(TypeKind.REFERENCE);
+        var listLocal = ctx.bytecodeUnsafe().allocateLocal(TypeKind.REFERENCE);
+        var snapshotLocal = ctx.bytecodeUnsafe().allocateLocal(TypeKind.REFERENCE);
+        var indexLocal = ctx.bytecodeUnsafe().allocateLocal(TypeKind.INT);
+        var exceptionLocal = ctx.bytecodeUnsafe().allocateLocal(TypeKind.REFERENCE);
 
         var listValueType = ctx.getTypeOf(list).flatten();
         Type<?> listSubType;
@@ -35,64 +35,81 @@ public record ForEachAction(
         }
         ctx.pushValue(list)
                 .typecheck(RList.class)
+                .dup()
+                .astore(listLocal)
                 .invokeStatic(
                         CodegenUtil.ofClass(RList.class),
-                        "copy",
+                        "iterate",
                         MethodTypeDesc.of(
-                                CodegenUtil.ofClass(RList.class),
+                                CodegenUtil.ofClass(List.class),
                                 List.of(CodegenUtil.ofClass(RList.class))
                         )
                 )
-                .invokeVirtual(
-                        CodegenUtil.ofClass(RuntimeValue.class),
-                        "javaValue",
-                        MethodTypeDesc.of(
-                                CodegenUtil.ofClass(Object.class),
-                                List.of()
-                        )
-                )
-                .typecheck(ArrayList.class)
-                .invokeVirtual(
-                    CodegenUtil.ofClass(ArrayList.class),
-                    "iterator",
-                    MethodTypeDesc.of(
-                            CodegenUtil.ofClass(Iterator.class),
-                            List.of()
-                    )
-                )
-                .typecheck(Iterator.class)
-                .astore(local);
+                .astore(snapshotLocal)
+                .constant(0)
+                .istore(indexLocal);
 
+        // the loop has to end its iteration however it is left: normally, through `return`, or by throwing
         var loopJumpLabel = ctx.bytecodeUnsafe().newLabel();
         var loopExitLabel = ctx.bytecodeUnsafe().newLabel();
+        var handlerLabel = ctx.bytecodeUnsafe().newLabel();
+        var doneLabel = ctx.bytecodeUnsafe().newLabel();
+        Runnable endIterate = () -> ctx
+                .aload(listLocal)
+                .aload(snapshotLocal)
+                .invokeStatic(
+                        CodegenUtil.ofClass(RList.class),
+                        "endIterate",
+                        MethodTypeDesc.of(
+                                CodegenUtil.ofVoid(),
+                                List.of(
+                                        CodegenUtil.ofClass(RList.class),
+                                        CodegenUtil.ofClass(List.class)
+                                )
+                        )
+                );
         ctx
                 .bytecodeUnsafe(cb -> cb.labelBinding(loopJumpLabel))
-                .aload(local)
-                .typecheck(Iterator.class)
+                .loopCheckpoint(this.span)
+                .iload(indexLocal)
+                .aload(snapshotLocal)
                 .invokeInterface(
-                        CodegenUtil.ofClass(Iterator.class),
-                        "hasNext",
-                        MethodTypeDesc.of(CodegenUtil.ofBoolean(), List.of())
+                        CodegenUtil.ofClass(List.class),
+                        "size",
+                        MethodTypeDesc.of(CodegenUtil.ofInt(), List.of())
                 )
-                .ifThen(
-                        () -> ctx.aload(local)
-                                .typecheck(Iterator.class)
-                                .invokeInterface(
-                                        CodegenUtil.ofClass(Iterator.class),
-                                        "next",
-                                        MethodTypeDesc.of(
-                                                CodegenUtil.ofClass(Object.class),
-                                                List.of()
-                                        )
-                                )
-                                .typecheck(listSubType.typeClass())
-                                .pushFrame(loopJumpLabel, loopExitLabel)
-                                .storeLocalShadowing(this.variableName(), listSubType)
-                                .pushValue(this.block)
-                                .popFrame()
-                                .bytecodeUnsafe(cb -> cb.goto_(loopJumpLabel))
+                .bytecodeUnsafe(cb -> cb.if_icmpge(loopExitLabel))
+                .aload(snapshotLocal)
+                .iload(indexLocal)
+                .invokeInterface(
+                        CodegenUtil.ofClass(List.class),
+                        "get",
+                        MethodTypeDesc.of(
+                                CodegenUtil.ofClass(Object.class),
+                                List.of(CodegenUtil.ofInt())
+                        )
                 )
-                .bytecodeUnsafe(cb -> cb.labelBinding(loopExitLabel));
+                .typecheck(listSubType.typeClass())
+                .bytecodeUnsafe(cb -> cb.iinc(indexLocal, 1))
+                .pushFrame(loopJumpLabel, loopExitLabel)
+                .pushExitHandler(endIterate)
+                .storeLocalShadowing(this.variableName(), listSubType)
+                .pushValue(this.block)
+                .popExitHandler()
+                .popFrame()
+                .bytecodeUnsafe(cb -> cb.goto_(loopJumpLabel).labelBinding(loopExitLabel));
+        // registered after the body, so the handlers of loops nested in it come first in the exception table
+        ctx.bytecodeUnsafe(cb -> cb.exceptionCatchAll(loopJumpLabel, loopExitLabel, handlerLabel));
+        endIterate.run();
+        ctx.bytecodeUnsafe(cb -> cb
+                .goto_(doneLabel)
+                .labelBinding(handlerLabel)
+                .astore(exceptionLocal));
+        endIterate.run();
+        ctx.bytecodeUnsafe(cb -> cb
+                .aload(exceptionLocal)
+                .athrow()
+                .labelBinding(doneLabel));
     }
 
     @Override
@@ -2,14 +2,9 @@ package dev.akarah.cdata.script.expr.ast;
 
 import dev.akarah.cdata.script.expr.Expression;
 import dev.akarah.cdata.script.jvm.CodegenContext;
-import dev.akarah.cdata.script.jvm.CodegenUtil;
 import dev.akarah.cdata.script.type.Type;
-import dev.akarah.cdata.script.value.RBoolean;
 
 import java.lang.classfile.Opcode;
-import java.lang.constant.ClassDesc;
-import java.lang.constant.MethodTypeDesc;
-import java.util.List;
 import java.util.Optional;
 
 public record IfAction(
@@ -20,17 +15,7 @@ public record IfAction(
 
     @Override
     public void compile(CodegenContext ctx) {
-        ctx
-                .pushValue(this.condition)
-                .typecheck(RBoolean.class)
-                .invokeVirtual(
-                        CodegenUtil.ofClass(RBoolean.class),
-                        "asInt",
-                        MethodTypeDesc.of(
-                                CodegenUtil.ofInt(),
-                                List.of()
-                        )
-                );
+        ctx.pushUnboxedBoolean(this.condition);
         var exitLabel = ctx.bytecodeUnsafe().newLabel();
         ctx
                 .pushFrame(exitLabel, exitLabel)
@@ -1,22 +1,21 @@
 package dev.akarah.cdata.script.expr.ast;
 
+import dev.akarah.cdata.script.exception.SpanData;
 import dev.akarah.cdata.script.expr.Expression;
 import dev.akarah.cdata.script.jvm.CodegenContext;
 import dev.akarah.cdata.script.type.Type;
-import dev.akarah.cdata.script.value.RNumber;
 
 import java.lang.classfile.TypeKind;
 
 public record RepeatTimesAction(
         Expression times,
-        Expression perform
+        Expression perform,
+        SpanData span
 ) implements Expression {
     @Override
     public void compile(CodegenContext ctx) {
         var local = ctx.bytecodeUnsafe().allocateLocal(TypeKind.INT);
-        ctx.pushValue(times)
-                .typecheck(RNumber.class)
-                .unboxNumber()
+        ctx.pushUnboxedNumber(times)
                 .d2i()
                 .istore(local);
 
@@ -27,8 +26,10 @@ public record RepeatTimesAction(
 
         ctx
                 .pushFrame(loopCheck, loopExit)
+                .bytecodeUnsafe(cb -> cb.labelBinding(loopCheck))
+                .loopCheckpoint(this.span)
                 .bytecodeUnsafe(
-                cb -> cb.labelBinding(loopCheck)
+                cb -> cb
                         .iload(local)
                         .loadConstant(0)
                         .if_icmpgt(loopStart)
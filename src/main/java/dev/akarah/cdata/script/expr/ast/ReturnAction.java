@@ -10,10 +10,13 @@ public record ReturnAction(Expression value) implements Expression {
     @Override
     public void compile(CodegenContext ctx) {
         if(value == null) {
-            ctx.bytecodeUnsafe(CodeBuilder::return_);
+            ctx
+                    .runExitHandlers()
+                    .bytecodeUnsafe(CodeBuilder::return_);
         } else {
             ctx
                     .pushValue(value)
+                    .runExitHandlers()
                     .bytecodeUnsafe(CodeBuilder::areturn);
         }
     }
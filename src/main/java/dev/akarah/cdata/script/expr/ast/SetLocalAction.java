@@ -3,7 +3,9 @@ package dev.akarah.cdata.script.expr.ast;
 import dev.akarah.cdata.script.exception.ParsingException;
 import dev.akarah.cdata.script.exception.SpanData;
 import dev.akarah.cdata.script.expr.Expression;
+import dev.akarah.cdata.script.expr.ast.value.InlineDictExpression;
 import dev.akarah.cdata.script.jvm.CodegenContext;
+import dev.akarah.cdata.script.type.DictionaryType;
 import dev.akarah.cdata.script.type.Type;
 
 import java.util.Optional;
@@ -21,8 +23,13 @@ public record SetLocalAction(
                 throw new ParsingException("Type hint and value type do not match up", span);
             }
         }
-        ctx.pushValue(this.value)
-                .storeLocal(this.variable, typeHint.orElseGet(() -> ctx.getTypeOf(this.value)));
+        if(typeHint.map(Type::flatten).orElse(null) instanceof DictionaryType dictType
+                && this.value.flatten() instanceof InlineDictExpression inlineDict) {
+            inlineDict.compile(ctx, dictType);
+        } else {
+            ctx.pushValue(this.value);
+        }
+        ctx.storeLocal(this.variable, typeHint.orElseGet(() -> ctx.getTypeOf(this.value)));
     }
 
     @Override
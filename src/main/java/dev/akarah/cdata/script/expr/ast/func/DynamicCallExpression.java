@@ -0,0 +1,57 @@
+package dev.akarah.cdata.script.expr.ast.func;
+
+import dev.akarah.cdata.script.exception.SpanData;
+import dev.akarah.cdata.script.expr.Expression;
+import dev.akarah.cdata.script.jvm.CodegenContext;
+import dev.akarah.cdata.script.jvm.CodegenUtil;
+import dev.akarah.cdata.script.jvm.DynamicDispatch;
+import dev.akarah.cdata.script.type.Type;
+import dev.akarah.cdata.script.value.RuntimeValue;
+
+import java.lang.constant.*;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A call on a receiver of type `any`, which is resolved against the receiver's runtime class by
+ * {@link DynamicDispatch} and cached at the call site.
+ */
+public record DynamicCallExpression(
+        String functionName,
+        List<Expression> parameters,
+        SpanData span
+) implements Expression {
+    static DirectMethodHandleDesc BOOTSTRAP = MethodHandleDesc.ofMethod(
+            DirectMethodHandleDesc.Kind.STATIC,
+            CodegenUtil.ofClass(DynamicDispatch.class),
+            "bootstrap",
+            MethodTypeDesc.of(
+                    CodegenUtil.ofClass(CallSite.class),
+                    CodegenUtil.ofClass(MethodHandles.Lookup.class),
+                    CodegenUtil.ofClass(String.class),
+                    CodegenUtil.ofClass(MethodType.class)
+            )
+    );
+
+    @Override
+    public void compile(CodegenContext ctx) {
+        ctx.requireServerThread("Calling `" + this.functionName + "` on a value of type `any`");
+        for(var parameter : this.parameters) {
+            ctx.pushValue(parameter);
+        }
+        var valueDesc = CodegenUtil.ofClass(RuntimeValue.class);
+        ctx.bytecodeUnsafe(cb -> cb.invokedynamic(DynamicCallSiteDesc.of(
+                BOOTSTRAP,
+                this.functionName.replace(".", "__"),
+                MethodTypeDesc.of(valueDesc, Collections.nCopies(this.parameters.size(), valueDesc))
+        )));
+    }
+
+    @Override
+    public Type<?> type(CodegenContext ctx) {
+        return Type.any();
+    }
+}
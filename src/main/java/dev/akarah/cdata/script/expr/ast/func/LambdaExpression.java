@@ -8,12 +8,14 @@ import dev.akarah.cdata.script.expr.ast.AllOfAction;
 import dev.akarah.cdata.script.expr.ast.SchemaExpression;
 import dev.akarah.cdata.script.jvm.CodegenContext;
 import dev.akarah.cdata.script.jvm.CodegenUtil;
+import dev.akarah.cdata.script.jvm.ScriptAsync;
 import dev.akarah.cdata.script.params.ExpressionTypeSet;
 import dev.akarah.cdata.script.params.ParameterNode;
 import dev.akarah.cdata.script.type.Type;
 import dev.akarah.cdata.script.value.RFunction;
 import dev.akarah.cdata.script.value.RuntimeValue;
 
+import java.lang.classfile.CodeBuilder;
 import java.lang.constant.DirectMethodHandleDesc;
 import java.lang.constant.MethodHandleDesc;
 import java.lang.constant.MethodTypeDesc;
@@ -22,7 +24,6 @@ import java.lang.invoke.MethodType;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public record LambdaExpression(
@@ -32,18 +33,43 @@ public record LambdaExpression(
 ) implements Expression {
     @Override
     public void compile(CodegenContext ctx) {
+        this.compile(ctx, false);
+    }
+
+    /**
+     * Creates the function value, passing each captured local through {@link ScriptAsync#isolate(Object)} if
+     * `isolateCaptures` is set, so the function can run on another thread.
+     */
+    public void compile(CodegenContext ctx, boolean isolateCaptures) {
         ctx.constant(MethodHandleDesc.of(
                 DirectMethodHandleDesc.Kind.STATIC,
-                CodegenContext.ACTION_CLASS_DESC,
+                ctx.currentClass(),
                 this.name(),
                 this.methodType(ctx).descriptorString()
         ));
         var lastHighestLocal = ctx.highestLocal();
-        for(int i = 0; i <= lastHighestLocal; i++) {
-            if(ctx.frameLocals().contains(i)) {
-                ctx.aload(i);
-            } else {
-                ctx.constant(null);
+        if(lastHighestLocal != -1) {
+            var frameLocals = ctx.frameLocals();
+            ctx.constant(lastHighestLocal + 1)
+                    .bytecodeUnsafe(cb -> cb.anewarray(CodegenUtil.ofClass(Object.class)));
+            for(int i = 0; i <= lastHighestLocal; i++) {
+                if(!frameLocals.contains(i)) {
+                    continue;
+                }
+                ctx.dup()
+                        .constant(i)
+                        .aload(i);
+                if(isolateCaptures) {
+                    ctx.invokeStatic(
+                            CodegenUtil.ofClass(ScriptAsync.class),
+                            "isolate",
+                            MethodTypeDesc.of(
+                                    CodegenUtil.ofClass(Object.class),
+                                    List.of(CodegenUtil.ofClass(Object.class))
+                            )
+                    );
+                }
+                ctx.bytecodeUnsafe(CodeBuilder::aastore);
             }
             ctx.invokeVirtual(
                     CodegenUtil.ofClass(MethodHandle.class),
@@ -91,8 +117,7 @@ public record LambdaExpression(
         return MethodType.methodType(
                 this.typeSet().returns().typeClass(),
                 Stream.concat(
-                        IntStream.rangeClosed(0, ctx.highestLocal())
-                                .mapToObj(_ -> Object.class),
+                        Stream.of(Object[].class),
                         this.typeSet().parameters().stream()
                                 .map(ParameterNode::typePattern)
                                 .map(Type::typeClass)
@@ -8,10 +8,13 @@ import dev.akarah.cdata.script.dsl.DslTokenizer;
 import dev.akarah.cdata.script.exception.ParsingException;
 import dev.akarah.cdata.script.exception.SpanData;
 import dev.akarah.cdata.script.expr.Expression;
-import dev.akarah.cdata.script.expr.ast.value.CdExpression;
+import dev.akarah.cdata.script.expr.ast.operation.NumberArithmeticExpression;
+import dev.akarah.cdata.script.expr.ast.value.StructGetFieldExpression;
+import dev.akarah.cdata.script.expr.ast.value.StructSetFieldAction;
 import dev.akarah.cdata.script.jvm.CodegenContext;
 import dev.akarah.cdata.script.jvm.CodegenUtil;
 import dev.akarah.cdata.script.params.ExpressionStream;
+import dev.akarah.cdata.script.type.AnyType;
 import dev.akarah.cdata.script.type.StructType;
 import dev.akarah.cdata.script.type.Type;
 import dev.akarah.cdata.script.type.VariableType;
@@ -41,6 +44,14 @@ public class LateResolvedFunctionCall implements Expression {
         this.spanData = spanData;
     }
 
+    public String functionName() {
+        return this.functionName;
+    }
+
+    public List<Expression> parameters() {
+        return this.parameters;
+    }
+
     @Override
     public void compile(CodegenContext ctx) {
         this.resolve(ctx).compile(ctx);
@@ -90,7 +101,8 @@ public class LateResolvedFunctionCall implements Expression {
         if(!(ctx.getTypeOf(this.parameters.getFirst()).flatten() instanceof StructType(String name, List<StructType.Field> fields))) {
             return Optional.empty();
         }
-        for(var field : fields) {
+        for(int index = 0; index < fields.size(); index++) {
+            var field = fields.get(index);
             if(this.functionName.equals(field.name()) && this.parameters.size() == 2) {
                 if(!(ctx.getTypeOf(this.parameters.get(1)).flatten().typeEquals(field.type()))) {
                     throw new ParsingException(
@@ -98,39 +110,20 @@ public class LateResolvedFunctionCall implements Expression {
                             this.parameters.get(1).span()
                     );
                 }
-                return Optional.of(new JvmFunctionAction(
-                        CodegenUtil.ofClass(RStruct.class),
-                        "put",
-                        MethodTypeDesc.of(
-                                CodegenUtil.ofVoid(),
-                                List.of(
-                                        CodegenUtil.ofClass(RStruct.class),
-                                        CodegenUtil.ofClass(String.class),
-                                        CodegenUtil.ofClass(RuntimeValue.class)
-                                )
-                        ),
-                        List.of(this.parameters.getFirst(), new CdExpression(field.name()), this.parameters.get(1)),
-                        Type.void_()
+                return Optional.of(new StructSetFieldAction(
+                        this.parameters.getFirst(),
+                        index,
+                        field.name(),
+                        this.parameters.get(1)
                 ));
             }
 
             if(this.functionName.equals(field.name()) && this.parameters.size() == 1) {
-                var fb = field.fallback();
-                if(fb == null) {
-                    fb = new CdExpression(null);
-                }
-                return Optional.of(new JvmFunctionAction(
-                        CodegenUtil.ofClass(RStruct.class),
-                        "get",
-                        MethodTypeDesc.of(
-                                CodegenUtil.ofClass(RuntimeValue.class),
-                                List.of(
-                                        CodegenUtil.ofClass(RStruct.class),
-                                        CodegenUtil.ofClass(String.class),
-                                        CodegenUtil.ofClass(RuntimeValue.class)
-                                )
-                        ),
-                        List.of(this.parameters.getFirst(), new CdExpression(field.name()), fb),
+                return Optional.of(new StructGetFieldExpression(
+                        this.parameters.getFirst(),
+                        index,
+                        field.name(),
+                        field.fallback(),
                         field.type()
                 ));
             }
@@ -138,6 +131,24 @@ public class LateResolvedFunctionCall implements Expression {
         return Optional.empty();
     }
 
+    public Optional<Expression> resolveNumberArithmetic(CodegenContext ctx) {
+        if(this.parameters.size() != 2) {
+            return Optional.empty();
+        }
+        var operation = NumberArithmeticExpression.Operation.byFunctionName(this.functionName);
+        if(operation == null) {
+            return Optional.empty();
+        }
+        if(!ctx.isStaticallyNumber(this.parameters.getFirst()) || !ctx.isStaticallyNumber(this.parameters.get(1))) {
+            return Optional.empty();
+        }
+        return Optional.of(new NumberArithmeticExpression(
+                operation,
+                this.parameters.getFirst(),
+                this.parameters.get(1)
+        ));
+    }
+
     public Optional<Expression> resolveJvmAction(CodegenContext ctx) {
         Method method = null;
         for(var pair : this.functionLookupPossibilities(ctx)) {
@@ -202,9 +213,11 @@ public class LateResolvedFunctionCall implements Expression {
 
     public Optional<Expression> resolveFromUserCode(CodegenContext ctx) {
         var functionName = filterNameToMethodName(this.functionName);
+        ctx.dependOnFunction(functionName);
         var functionSchema = Resources.actionManager().expressions().get(functionName);
         if(functionSchema == null) {
             functionName = filterNameToMethodName(this.alternateWithNormalTypeName(ctx));
+            ctx.dependOnFunction(functionName);
             functionSchema = Resources.actionManager().expressions().get(functionName);
         }
 
@@ -235,6 +248,16 @@ public class LateResolvedFunctionCall implements Expression {
         return Optional.empty();
     }
 
+    /**
+     * Calls on `any` receivers can't be resolved at compile time, so they're dispatched on the receiver's runtime class.
+     */
+    public Optional<Expression> resolveDynamicCall(CodegenContext ctx) {
+        if(this.parameters.isEmpty() || !(this.virtualType(ctx).flatten() instanceof AnyType)) {
+            return Optional.empty();
+        }
+        return Optional.of(new DynamicCallExpression(this.functionName, this.parameters, this.spanData));
+    }
+
     public Expression resolve(CodegenContext ctx) {
         var tries = Arrays.stream(this.functionLookupPossibilities(ctx))
                 .map(Pair::getSecond)
@@ -247,8 +270,10 @@ public class LateResolvedFunctionCall implements Expression {
                 .toString();
         return this.resolveFromCache()
                 .or(() -> this.resolveStructGetter(ctx))
+                .or(() -> this.resolveNumberArithmetic(ctx))
                 .or(() -> this.resolveJvmAction(ctx))
                 .or(() -> this.resolveFromUserCode(ctx))
+                .or(() -> this.resolveDynamicCall(ctx))
                 .orElseThrow(() -> new ParsingException(
                         "Can not resolve function `"
                                 + this.functionName
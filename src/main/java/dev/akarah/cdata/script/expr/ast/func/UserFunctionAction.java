@@ -3,6 +3,7 @@ package dev.akarah.cdata.script.expr.ast.func;
 import dev.akarah.cdata.registry.Resources;
 import dev.akarah.cdata.script.expr.Expression;
 import dev.akarah.cdata.script.jvm.CodegenContext;
+import dev.akarah.cdata.script.jvm.ScriptLinker;
 import dev.akarah.cdata.script.type.Type;
 
 import java.lang.constant.MethodTypeDesc;
@@ -16,6 +17,8 @@ public record UserFunctionAction(
 ) implements Expression {
     @Override
     public void compile(CodegenContext ctx) {
+        // the function's body was compiled as server thread code, without the checks of an `async` block
+        ctx.requireServerThread("Calling the function `" + name + "`");
         int i = 0;
         var lookup = MethodHandles.lookup();
         for(var expr : parameters) {
@@ -26,11 +29,8 @@ public record UserFunctionAction(
             }
             i++;
         }
-        ctx.invokeStatic(
-                CodegenContext.ACTION_CLASS_DESC,
-                name,
-                methodTypeDesc
-        );
+        // linked by name, so this call follows the function when a reload recompiles its file
+        ctx.bytecodeUnsafe(cb -> cb.invokedynamic(ScriptLinker.call(name, methodTypeDesc)));
     }
 
     @Override
@@ -1,14 +1,10 @@
 package dev.akarah.cdata.script.expr.ast.operation;
 
-import java.lang.constant.MethodTypeDesc;
-import java.util.List;
-
 import dev.akarah.cdata.script.expr.Expression;
 import dev.akarah.cdata.script.jvm.CodegenContext;
-import dev.akarah.cdata.script.jvm.CodegenUtil;
 import dev.akarah.cdata.script.type.Type;
-import dev.akarah.cdata.script.value.RBoolean;
-import dev.akarah.cdata.script.value.RuntimeValue;
+
+import java.lang.classfile.Opcode;
 
 public record AndExpression(
         Expression lhs,
@@ -16,23 +12,27 @@ public record AndExpression(
 ) implements Expression {
     @Override
     public void compile(CodegenContext ctx) {
+        this.compileUnboxed(ctx);
+        ctx.boxBoolean();
+    }
+
+    /**
+     * Pushes the result of this operation onto the stack as an `int` of 0 or 1.
+     * Evaluates `rhs` only if `lhs` is true.
+     * @param ctx The context to compile into.
+     */
+    public void compileUnboxed(CodegenContext ctx) {
         ctx
-                .pushValue(lhs)
-                .typecheck(RBoolean.class)
-                .pushValue(rhs)
-                .typecheck(RBoolean.class)
-                .invokeStatic(
-                        CodegenUtil.ofClass(OperationUtil.class),
-                        "and",
-                        MethodTypeDesc.of(
-                                CodegenUtil.ofClass(RuntimeValue.class),
-                                List.of(CodegenUtil.ofClass(RuntimeValue.class), CodegenUtil.ofClass(RuntimeValue.class))
-                        )
+                .pushUnboxedBoolean(this.lhs)
+                .ifThenElse(
+                        Opcode.IFNE,
+                        () -> ctx.pushUnboxedBoolean(this.rhs),
+                        () -> ctx.constant(0)
                 );
     }
 
     @Override
     public Type<?> type(CodegenContext ctx) {
-        return ctx.getTypeOf(this.lhs).or(ctx.getTypeOf(this.rhs));
+        return Type.bool();
     }
 }
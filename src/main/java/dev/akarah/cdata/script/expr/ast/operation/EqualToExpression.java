@@ -3,37 +3,130 @@ package dev.akarah.cdata.script.expr.ast.operation;
 import dev.akarah.cdata.script.expr.Expression;
 import dev.akarah.cdata.script.jvm.CodegenContext;
 import dev.akarah.cdata.script.jvm.CodegenUtil;
-import dev.akarah.cdata.script.type.Type;
+import dev.akarah.cdata.script.type.*;
 import dev.akarah.cdata.script.value.RBoolean;
+import dev.akarah.cdata.script.value.RNumber;
+import dev.akarah.cdata.script.value.RString;
+import dev.akarah.cdata.script.value.mc.RIdentifier;
+import net.minecraft.resources.ResourceLocation;
 
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Opcode;
 import java.lang.constant.MethodTypeDesc;
 import java.util.List;
+import java.util.Objects;
 
+/**
+ * Equality between two values, where null is only equal to null. When both sides are statically known to share a
+ * type, this compares the underlying Java values directly instead of going through {@link Object#equals(Object)} on
+ * the boxed values. Numbers and booleans are only compared unboxed when neither side can be null.
+ */
 public record EqualToExpression(
         Expression lhs,
         Expression rhs
 ) implements Expression {
     @Override
     public void compile(CodegenContext ctx) {
+        this.compileUnboxed(ctx);
+        ctx.boxBoolean();
+    }
+
+    /**
+     * Pushes the result of this comparison onto the stack as an `int` of 0 or 1.
+     * @param ctx The context to compile into.
+     */
+    public void compileUnboxed(CodegenContext ctx) {
+        var lhsType = ctx.getTypeOf(this.lhs).flatten();
+        var rhsType = ctx.getTypeOf(this.rhs).flatten();
+        switch (lhsType) {
+            case NumberType _ when rhsType instanceof NumberType
+                    && ctx.isUnboxedNumber(this.lhs)
+                    && ctx.isUnboxedNumber(this.rhs) -> ctx
+                    .pushUnboxedNumber(this.lhs)
+                    .pushUnboxedNumber(this.rhs)
+                    // matches Double#equals, unlike dcmp, which treats NaN and -0.0 differently
+                    .invokeStatic(
+                            CodegenUtil.ofClass(Double.class),
+                            "compare",
+                            MethodTypeDesc.of(
+                                    CodegenUtil.ofInt(),
+                                    List.of(CodegenUtil.ofDouble(), CodegenUtil.ofDouble())
+                            )
+                    )
+                    .ifThenElse(
+                            Opcode.IFEQ,
+                            () -> ctx.constant(1),
+                            () -> ctx.constant(0)
+                    );
+            case BooleanType _ when rhsType instanceof BooleanType
+                    && ctx.isUnboxedBoolean(this.lhs)
+                    && ctx.isUnboxedBoolean(this.rhs) -> ctx
+                    .pushUnboxedBoolean(this.lhs)
+                    .pushUnboxedBoolean(this.rhs)
+                    .bytecodeUnsafe(CodeBuilder::ixor)
+                    .ifThenElse(
+                            Opcode.IFEQ,
+                            () -> ctx.constant(1),
+                            () -> ctx.constant(0)
+                    );
+            case NumberType _ when rhsType instanceof NumberType ->
+                    this.compileJavaValueEquals(ctx, RNumber.class, Double.class);
+            case BooleanType _ when rhsType instanceof BooleanType ->
+                    this.compileJavaValueEquals(ctx, RBoolean.class, Boolean.class);
+            case StringType _ when rhsType instanceof StringType ->
+                    this.compileJavaValueEquals(ctx, RString.class, String.class);
+            case IdentifierType _ when rhsType instanceof IdentifierType ->
+                    this.compileJavaValueEquals(ctx, RIdentifier.class, ResourceLocation.class);
+            default -> ctx
+                    .pushValue(this.lhs)
+                    .pushValue(this.rhs)
+                    .invokeStatic(
+                            CodegenUtil.ofClass(Objects.class),
+                            "equals",
+                            MethodTypeDesc.of(
+                                    CodegenUtil.ofBoolean(),
+                                    List.of(CodegenUtil.ofClass(Object.class), CodegenUtil.ofClass(Object.class))
+                            )
+                    );
+        }
+    }
+
+    private void compileJavaValueEquals(CodegenContext ctx, Class<?> valueClass, Class<?> javaClass) {
+        ctx.pushValue(this.lhs);
+        this.unwrapNullable(ctx, valueClass, javaClass);
+        ctx.pushValue(this.rhs);
+        this.unwrapNullable(ctx, valueClass, javaClass);
+        ctx.invokeStatic(
+                CodegenUtil.ofClass(Objects.class),
+                "equals",
+                MethodTypeDesc.of(
+                        CodegenUtil.ofBoolean(),
+                        List.of(CodegenUtil.ofClass(Object.class), CodegenUtil.ofClass(Object.class))
+                )
+        );
+    }
+
+    /**
+     * Replaces the value on top of the stack with its Java value, leaving null as null.
+     */
+    private void unwrapNullable(CodegenContext ctx, Class<?> valueClass, Class<?> javaClass) {
+        var nonNull = ctx.bytecodeUnsafe().newLabel();
+        var end = ctx.bytecodeUnsafe().newLabel();
         ctx
-                .pushValue(lhs)
-                .pushValue(rhs)
+                .typecheck(valueClass)
+                .dup()
+                .bytecodeUnsafe(cb -> cb
+                        .ifnonnull(nonNull)
+                        .pop()
+                        .aconst_null()
+                        .goto_(end)
+                        .labelBinding(nonNull))
                 .invokeVirtual(
-                        CodegenUtil.ofClass(Object.class),
-                        "equals",
-                        MethodTypeDesc.of(
-                                CodegenUtil.ofBoolean(),
-                                List.of(CodegenUtil.ofClass(Object.class))
-                        )
+                        CodegenUtil.ofClass(valueClass),
+                        "javaValue",
+                        MethodTypeDesc.of(CodegenUtil.ofClass(javaClass), List.of())
                 )
-                .invokeStatic(
-                        CodegenUtil.ofClass(RBoolean.class),
-                        "of",
-                        MethodTypeDesc.of(
-                                CodegenUtil.ofClass(RBoolean.class),
-                                List.of(CodegenUtil.ofBoolean())
-                        )
-                );
+                .bytecodeUnsafe(cb -> cb.labelBinding(end));
     }
 
     @Override
@@ -2,15 +2,10 @@ package dev.akarah.cdata.script.expr.ast.operation;
 
 import dev.akarah.cdata.script.expr.Expression;
 import dev.akarah.cdata.script.jvm.CodegenContext;
-import dev.akarah.cdata.script.jvm.CodegenUtil;
 import dev.akarah.cdata.script.type.Type;
-import dev.akarah.cdata.script.value.RBoolean;
-import dev.akarah.cdata.script.value.RNumber;
 
 import java.lang.classfile.CodeBuilder;
 import java.lang.classfile.Opcode;
-import java.lang.constant.MethodTypeDesc;
-import java.util.List;
 
 public record LessThanExpression(
         Expression lhs,
@@ -18,26 +13,23 @@ public record LessThanExpression(
 ) implements Expression {
     @Override
     public void compile(CodegenContext ctx) {
+        this.compileUnboxed(ctx);
+        ctx.boxBoolean();
+    }
+
+    /**
+     * Pushes the result of this comparison onto the stack as an `int` of 0 or 1.
+     * @param ctx The context to compile into.
+     */
+    public void compileUnboxed(CodegenContext ctx) {
         ctx
-                .pushValue(lhs)
-                .typecheck(RNumber.class)
-                .unboxNumber()
-                .pushValue(rhs)
-                .typecheck(RNumber.class)
-                .unboxNumber()
+                .pushUnboxedNumber(lhs)
+                .pushUnboxedNumber(rhs)
                 .bytecodeUnsafe(CodeBuilder::dcmpg)
                 .ifThenElse(
                         Opcode.IFLT,
                         () -> ctx.constant(1),
                         () -> ctx.constant(0)
-                )
-                .invokeStatic(
-                        CodegenUtil.ofClass(RBoolean.class),
-                        "of",
-                        MethodTypeDesc.of(
-                                CodegenUtil.ofClass(RBoolean.class),
-                                List.of(CodegenUtil.ofBoolean())
-                        )
                 );
     }
 
@@ -0,0 +1,73 @@
+package dev.akarah.cdata.script.expr.ast.operation;
+
+import dev.akarah.cdata.script.expr.Expression;
+import dev.akarah.cdata.script.jvm.CodegenContext;
+import dev.akarah.cdata.script.type.Type;
+
+import java.lang.classfile.CodeBuilder;
+
+/**
+ * Arithmetic between two operands that are statically known to be numbers.
+ * Operands are kept as raw `double`s on the operand stack, so a chain like `a * b + c`
+ * only allocates a single {@link dev.akarah.cdata.script.value.RNumber} once the result escapes.
+ */
+public record NumberArithmeticExpression(
+        Operation operation,
+        Expression lhs,
+        Expression rhs
+) implements Expression {
+    public enum Operation {
+        ADD("add"),
+        SUB("sub"),
+        MUL("mul"),
+        DIV("div"),
+        REM("rem");
+
+        private final String functionName;
+
+        Operation(String functionName) {
+            this.functionName = functionName;
+        }
+
+        public static Operation byFunctionName(String functionName) {
+            for(var operation : Operation.values()) {
+                if(operation.functionName.equals(functionName)) {
+                    return operation;
+                }
+            }
+            return null;
+        }
+
+        public CodeBuilder apply(CodeBuilder codeBuilder) {
+            return switch (this) {
+                case ADD -> codeBuilder.dadd();
+                case SUB -> codeBuilder.dsub();
+                case MUL -> codeBuilder.dmul();
+                case DIV -> codeBuilder.ddiv();
+                case REM -> codeBuilder.drem();
+            };
+        }
+    }
+
+    @Override
+    public void compile(CodegenContext ctx) {
+        this.compileUnboxed(ctx);
+        ctx.boxNumber();
+    }
+
+    /**
+     * Pushes the result of this operation onto the stack as a raw `double`.
+     * @param ctx The context to compile into.
+     */
+    public void compileUnboxed(CodegenContext ctx) {
+        ctx
+                .pushUnboxedNumber(this.lhs)
+                .pushUnboxedNumber(this.rhs)
+                .bytecodeUnsafe(this.operation::apply);
+    }
+
+    @Override
+    public Type<?> type(CodegenContext ctx) {
+        return Type.number();
+    }
+}
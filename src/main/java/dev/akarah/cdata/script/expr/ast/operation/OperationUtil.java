@@ -1,6 +1,5 @@
 package dev.akarah.cdata.script.expr.ast.operation;
 
-import dev.akarah.cdata.script.value.RBoolean;
 import dev.akarah.cdata.script.value.RNumber;
 import dev.akarah.cdata.script.value.RString;
 import dev.akarah.cdata.script.value.RText;
@@ -30,12 +29,4 @@ public class OperationUtil {
         }
         throw new RuntimeException("Can not add " + lhs + " and " + rhs);
     }
-
-    public static RuntimeValue and(RuntimeValue lhs, RuntimeValue rhs) {
-        return RBoolean.of(((RBoolean) lhs).javaValue() && ((RBoolean) rhs).javaValue());
-    }
-
-    public static RuntimeValue or(RuntimeValue lhs, RuntimeValue rhs) {
-        return RBoolean.of(((RBoolean) lhs).javaValue() || ((RBoolean) rhs).javaValue());
-    }
 }
@@ -5,6 +5,7 @@ import dev.akarah.cdata.script.exception.SpanData;
 import dev.akarah.cdata.script.expr.Expression;
 import dev.akarah.cdata.script.jvm.CodegenContext;
 import dev.akarah.cdata.script.jvm.CodegenUtil;
+import dev.akarah.cdata.script.type.DictionaryType;
 import dev.akarah.cdata.script.type.Type;
 import dev.akarah.cdata.script.value.RDict;
 import dev.akarah.cdata.script.value.RuntimeValue;
@@ -19,9 +20,17 @@ public record InlineDictExpression(
 ) implements Expression {
     @Override
     public void compile(CodegenContext ctx) {
+        this.compile(ctx, (DictionaryType) this.type(ctx));
+    }
+
+    /**
+     * Compiles the dictionary with a backing map specialized for the given type, such as the type hint of the local
+     * it is stored in.
+     */
+    public void compile(CodegenContext ctx, DictionaryType type) {
         ctx.invokeStatic(
             CodegenUtil.ofClass(RDict.class),
-            "create",
+            type.factoryMethod(),
             MethodTypeDesc.of(
                     CodegenUtil.ofClass(RDict.class),
                     List.of()
@@ -23,17 +23,6 @@ public record InlineStructExpression(
 ) implements Expression {
     @Override
     public void compile(CodegenContext ctx) {
-        ctx.constant(this.name()).constant(this.expressions.size()).invokeStatic(
-                CodegenUtil.ofClass(RStruct.class),
-                "create",
-                MethodTypeDesc.of(
-                        CodegenUtil.ofClass(RStruct.class),
-                        List.of(
-                                CodegenUtil.ofClass(String.class),
-                                CodegenUtil.ofInt()
-                        )
-                )
-        );
         // todo: add field validation checks
 
 
@@ -62,18 +51,33 @@ public record InlineStructExpression(
             }
         }
 
+        ctx.constant(this.name()).constant(this.name.replace(".", "_")).invokeStatic(
+                CodegenUtil.ofClass(RStruct.class),
+                "createWithLayout",
+                MethodTypeDesc.of(
+                        CodegenUtil.ofClass(RStruct.class),
+                        List.of(
+                                CodegenUtil.ofClass(String.class),
+                                CodegenUtil.ofClass(String.class)
+                        )
+                )
+        );
+
         for(var expr : expressions) {
+            var index = type.fields().stream().map(StructType.Field::name).toList().indexOf(expr.getFirst());
             ctx
                     .dup()
+                    .constant(index)
                     .constant(expr.getFirst())
                     .pushValue(expr.getSecond())
                     .invokeStatic(
                             CodegenUtil.ofClass(RStruct.class),
-                            "put",
+                            "putField",
                             MethodTypeDesc.of(
                                     CodegenUtil.ofVoid(),
                                     List.of(
                                             CodegenUtil.ofClass(RStruct.class),
+                                            CodegenUtil.ofInt(),
                                             CodegenUtil.ofClass(String.class),
                                             CodegenUtil.ofClass(RuntimeValue.class)
                                     )
@@ -0,0 +1,50 @@
+package dev.akarah.cdata.script.expr.ast.value;
+
+import dev.akarah.cdata.script.expr.Expression;
+import dev.akarah.cdata.script.jvm.CodegenContext;
+import dev.akarah.cdata.script.jvm.CodegenUtil;
+import dev.akarah.cdata.script.type.Type;
+import dev.akarah.cdata.script.value.RStruct;
+import dev.akarah.cdata.script.value.RuntimeValue;
+
+import java.lang.constant.MethodTypeDesc;
+import java.util.List;
+
+/**
+ * Writes a field of a struct whose type is known at compile time, by its index in the type's layout.
+ */
+public record StructSetFieldAction(
+        Expression struct,
+        int index,
+        String field,
+        Expression value
+) implements Expression {
+    @Override
+    public void compile(CodegenContext ctx) {
+        ctx
+                .pushValue(this.struct)
+                .typecheck(RStruct.class)
+                .constant(this.index)
+                .constant(this.field)
+                .pushValue(this.value)
+                .typecheck(RuntimeValue.class)
+                .invokeStatic(
+                        CodegenUtil.ofClass(RStruct.class),
+                        "putField",
+                        MethodTypeDesc.of(
+                                CodegenUtil.ofVoid(),
+                                List.of(
+                                        CodegenUtil.ofClass(RStruct.class),
+                                        CodegenUtil.ofInt(),
+                                        CodegenUtil.ofClass(String.class),
+                                        CodegenUtil.ofClass(RuntimeValue.class)
+                                )
+                        )
+                );
+    }
+
+    @Override
+    public Type<?> type(CodegenContext ctx) {
+        return Type.void_();
+    }
+}
@@ -0,0 +1,178 @@
+package dev.akarah.cdata.script.jvm;
+
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import net.fabricmc.loader.api.FabricLoader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Persists the class of every compiled function to disk, so a restart can define the classes of unchanged scripts
+ * directly instead of generating them again.
+ * <p>
+ * The cache as a whole is keyed by a hash of the engine's own files and the Java version, so any change to the
+ * compiler or the runtime classes compiled code calls into invalidates it. Each function is only reused while its
+ * source and the fingerprints of its dependencies match, see {@link dev.akarah.cdata.script.dsl.DslDependencyGraph}.
+ */
+public class BytecodeCache {
+    public static Path CACHE_PATH = Path.of("./build/script_cache.bin");
+    static int MAGIC = 0x414B4144;
+    private static HashCode ENGINE_FINGERPRINT;
+
+    /**
+     * The bytes needed to define a compiled function again.
+     * @param sourceHash The content hash of the function's script.
+     * @param dependencies The fingerprints of its dependencies when it was compiled.
+     * @param className The name of the class it was compiled into.
+     * @param bytes The raw bytes of that class.
+     */
+    public record Entry(
+            HashCode sourceHash,
+            Map<String, HashCode> dependencies,
+            String className,
+            byte[] bytes
+    ) {
+
+    }
+
+    /**
+     * Computes the cache key of the running engine.
+     * @return The cache key.
+     */
+    public static HashCode key() {
+        var hasher = Hashing.sha256().newHasher();
+        hasher.putBytes(BytecodeCache.engineFingerprint().asBytes());
+        hasher.putString(Runtime.version().toString(), StandardCharsets.UTF_8);
+        return hasher.hash();
+    }
+
+    /**
+     * Hashes every file of the engine mod, so a rebuilt engine invalidates the cache even if its version did not
+     * change. The engine can't change without a restart, so this is only computed once.
+     */
+    static synchronized HashCode engineFingerprint() {
+        if(ENGINE_FINGERPRINT == null) {
+            ENGINE_FINGERPRINT = BytecodeCache.computeEngineFingerprint();
+        }
+        return ENGINE_FINGERPRINT;
+    }
+
+    private static HashCode computeEngineFingerprint() {
+        var hasher = Hashing.sha256().newHasher();
+        var container = FabricLoader.getInstance().getModContainer("akarahnet-engine");
+        try {
+            if(container.isEmpty()) {
+                throw new IOException("engine mod container not found");
+            }
+            hasher.putString(container.get().getMetadata().getVersion().getFriendlyString(), StandardCharsets.UTF_8);
+            for(var root : container.get().getRootPaths()) {
+                try(var files = Files.walk(root)) {
+                    var sorted = files
+                            .filter(Files::isRegularFile)
+                            .sorted(Comparator.comparing(Path::toString))
+                            .toList();
+                    for(var file : sorted) {
+                        hasher.putString(root.relativize(file).toString(), StandardCharsets.UTF_8);
+                        hasher.putBytes(Files.readAllBytes(file));
+                    }
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // a key that can never match, so nothing is reused from or for another engine build
+            System.out.println("Unable to fingerprint the engine, not reusing cached scripts: " + e.getMessage());
+            hasher.putString(UUID.randomUUID().toString(), StandardCharsets.UTF_8);
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Reads the cached functions if they were stored under the same key.
+     * @param key The expected cache key.
+     * @return The cached functions keyed by method name, which is empty if there are none or they are stale.
+     */
+    public static Map<String, Entry> load(HashCode key) {
+        try(var input = new DataInputStream(Files.newInputStream(CACHE_PATH))) {
+            if(input.readInt() != MAGIC) {
+                return Map.of();
+            }
+            if(!BytecodeCache.readHash(input).equals(key)) {
+                return Map.of();
+            }
+
+            var entries = Maps.<String, Entry>newHashMap();
+            var functionCount = input.readInt();
+            for(int i = 0; i < functionCount; i++) {
+                var name = input.readUTF();
+                var sourceHash = BytecodeCache.readHash(input);
+                var dependencies = Maps.<String, HashCode>newHashMap();
+                var dependencyCount = input.readInt();
+                for(int j = 0; j < dependencyCount; j++) {
+                    dependencies.put(input.readUTF(), BytecodeCache.readHash(input));
+                }
+                var className = input.readUTF();
+                entries.put(name, new Entry(sourceHash, dependencies, className, input.readNBytes(input.readInt())));
+            }
+            return entries;
+        } catch (NoSuchFileException e) {
+            return Map.of();
+        } catch (IOException e) {
+            System.out.println("Unable to read script cache, recompiling: " + e.getMessage());
+            return Map.of();
+        }
+    }
+
+    private static HashCode readHash(DataInputStream input) throws IOException {
+        return HashCode.fromBytes(input.readNBytes(input.readInt()));
+    }
+
+    private static void writeHash(DataOutputStream output, HashCode hash) throws IOException {
+        output.writeInt(hash.bits() / 8);
+        output.write(hash.asBytes());
+    }
+
+    /**
+     * Writes compiled functions to the cache, replacing whatever was stored before.
+     * @param key The cache key of the running engine.
+     * @param entries The functions to store, keyed by method name.
+     */
+    public static void save(HashCode key, Map<String, Entry> entries) {
+        try {
+            Files.createDirectories(CACHE_PATH.getParent());
+            var temporary = CACHE_PATH.resolveSibling(CACHE_PATH.getFileName() + ".tmp");
+            try(var output = new DataOutputStream(Files.newOutputStream(temporary))) {
+                output.writeInt(MAGIC);
+                BytecodeCache.writeHash(output, key);
+
+                output.writeInt(entries.size());
+                for(var function : entries.entrySet()) {
+                    var entry = function.getValue();
+                    output.writeUTF(function.getKey());
+                    BytecodeCache.writeHash(output, entry.sourceHash());
+                    output.writeInt(entry.dependencies().size());
+                    for(var dependency : entry.dependencies().entrySet()) {
+                        output.writeUTF(dependency.getKey());
+                        BytecodeCache.writeHash(output, dependency.getValue());
+                    }
+                    output.writeUTF(entry.className());
+                    output.writeInt(entry.bytes().length);
+                    output.write(entry.bytes());
+                }
+            }
+            Files.move(temporary, CACHE_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Unable to write script cache: " + e.getMessage());
+        }
+    }
+}
@@ -4,16 +4,30 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.mojang.datafixers.util.Pair;
+import dev.akarah.cdata.script.dsl.DslActionManager;
 import dev.akarah.cdata.script.exception.ParsingException;
 import dev.akarah.cdata.script.exception.SpanData;
 import dev.akarah.cdata.script.expr.Expression;
 import dev.akarah.cdata.script.expr.ast.SchemaExpression;
+import dev.akarah.cdata.script.expr.ast.func.LateResolvedFunctionCall;
+import dev.akarah.cdata.script.expr.ast.operation.*;
+import dev.akarah.cdata.script.expr.ast.value.BooleanExpression;
+import dev.akarah.cdata.script.expr.ast.value.NumberExpression;
+import dev.akarah.cdata.script.type.FunctionType;
+import dev.akarah.cdata.script.type.NumberType;
 import dev.akarah.cdata.script.type.StructType;
 import dev.akarah.cdata.script.type.Type;
 import dev.akarah.cdata.script.type.VariableType;
 import dev.akarah.cdata.script.type.VoidType;
+import dev.akarah.cdata.script.value.GlobalNamespace;
+import dev.akarah.cdata.script.value.RBoolean;
 import dev.akarah.cdata.script.value.RNumber;
+import dev.akarah.cdata.script.value.RStore;
 import dev.akarah.cdata.script.value.RuntimeValue;
+import dev.akarah.cdata.script.value.mc.REntity;
+import dev.akarah.cdata.script.value.mc.RInventory;
+import dev.akarah.cdata.script.value.mc.RItem;
+import dev.akarah.cdata.script.value.mc.RWorld;
 import net.minecraft.resources.ResourceLocation;
 
 import java.io.IOException;
@@ -39,6 +53,11 @@ public class CodegenContext {
     public static String RAW_CLASS_NAME = "dev.akarah.cdata.script.compiled.CompiledActionCode";
 
     ClassBuilder classBuilder;
+    ClassDesc currentClass = ACTION_CLASS_DESC;
+    /**
+     * The user functions the function being compiled looked up while resolving its calls.
+     */
+    Set<String> functionDependencies = Sets.newHashSet();
     MethodBuilder methodBuilder;
     CodeBuilder codeBuilder;
     Map<String, Class<?>> staticClasses = Maps.newHashMap();
@@ -46,18 +65,55 @@ public class CodegenContext {
     public Map<String, Object> staticValues = Maps.newHashMap();
 
     List<StackFrame> stackFrames = Lists.newArrayList();
+    /**
+     * Code that has to run before the method being compiled returns early, such as the end of a `for` loop.
+     */
+    List<Runnable> exitHandlers = Lists.newArrayList();
 
     public record SchemaRequest(
             String name,
             SchemaExpression schema,
             Integer freeLocals,
-            List<StackFrame> stackFrames
+            List<StackFrame> stackFrames,
+            SpanData asyncSpan,
+            int asyncCapturedFrames
     ) {
 
     }
 
     List<SchemaRequest> requestedSchemas = Lists.newArrayList();
 
+    /**
+     * The span of the `async` block whose code is currently being compiled, or null when compiling server thread code.
+     */
+    SpanData asyncSpan;
+    /**
+     * How many of the outermost stack frames belong to the server thread code around the current `async` block. Locals
+     * from these frames are captured by the block.
+     */
+    int asyncCapturedFrames;
+
+    /**
+     * Owners whose methods touch game state, which may only be called from the server thread.
+     */
+    static Set<ClassDesc> SERVER_THREAD_CLASSES = Set.of(
+            CodegenUtil.ofClass(REntity.class),
+            CodegenUtil.ofClass(RWorld.class),
+            CodegenUtil.ofClass(RItem.class),
+            CodegenUtil.ofClass(RInventory.class),
+            CodegenUtil.ofClass(RStore.class)
+    );
+    static Set<String> SERVER_THREAD_FUNCTIONS = Set.of(
+            "item__create",
+            "item__templated",
+            "inventory__create",
+            "store__temp",
+            "store__save",
+            "server__uptime",
+            "server__players",
+            "run_delayed"
+    );
+
     public record StackFrame(
             Map<String, Integer> methodLocals,
             Map<String, Type<?>> methodLocalTypes,
@@ -70,31 +126,116 @@ public class CodegenContext {
     public static CodegenContext INSTANCE;
 
     /**
-     * Begin compiling expressions into a valid class. This method should only be called once.
-     * @param refs The list of expressions to compile.
-     * @return The created class.
+     * The classes produced by compiling some functions.
+     * @param classes The raw bytes of each class, keyed by class name.
+     * @param functionClasses The name of the class each compiled function was compiled into.
+     * @param functionDependencies The user functions each compiled function looked up while resolving its calls.
+     * @param persistable False if the classes hold statics, which can't be restored after a restart.
      */
-    public static Class<?> initializeCompilation(List<Pair<String, SchemaExpression>> refs, Map<String, StructType> userTypes) {
-        var bytes = CodegenContext.compileClassBytecode(refs, userTypes);
+    public record Compilation(
+            Map<String, byte[]> classes,
+            Map<String, String> functionClasses,
+            Map<String, Set<String>> functionDependencies,
+            boolean persistable
+    ) {
+
+    }
+
+    /**
+     * Compiles every function into a class of its own, and the event dispatchers into the root class.
+     * @param functions The functions to compile.
+     * @param handlers Every loaded function, including those compiled by an earlier reload, to dispatch events to.
+     * @return The created classes, which are not defined yet.
+     */
+    public static Compilation initializeCompilation(
+            List<Pair<String, SchemaExpression>> functions,
+            List<Pair<String, SchemaExpression>> handlers,
+            Map<String, StructType> userTypes
+    ) {
+        var cc = new CodegenContext();
+        CodegenContext.INSTANCE = cc;
+        cc.userTypes = userTypes;
+
+        var functionClasses = Maps.<String, String>newHashMap();
+        var functionDependencies = Maps.<String, Set<String>>newHashMap();
+        var classes = CodegenContext.compileClassBytecode(cc, functions, handlers, functionClasses, functionDependencies);
         try {
             Files.createDirectories(Path.of("./build/"));
-            Files.write(
-                    Path.of("./build/CompiledActionCode.class"),
-                    bytes,
-                    StandardOpenOption.CREATE
-            );
+            for(var entry : classes.entrySet()) {
+                Files.write(
+                        Path.of("./build/" + entry.getKey().substring(entry.getKey().lastIndexOf('.') + 1) + ".class"),
+                        entry.getValue(),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING
+                );
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+
+        return new Compilation(classes, functionClasses, functionDependencies, cc.staticValues.isEmpty());
+    }
+
+    /**
+     * Defines classes in a fresh {@link ByteClassLoader}. Compiled functions only refer to their own class and call
+     * each other through {@link ScriptLinker}, so classes from different reloads can live in different loaders.
+     * @param classes The raw bytes of each class, keyed by class name.
+     * @param functionClasses The name of the class each function was compiled into.
+     * @return The defined classes, whose root class is null if it is not among them.
+     */
+    public static CompiledCode defineClasses(Map<String, byte[]> classes, Map<String, String> functionClasses) {
         var classLoader = new ByteClassLoader(Thread.currentThread().getContextClassLoader());
-        classLoader.registerClass(RAW_CLASS_NAME, bytes);
+        classes.forEach(classLoader::registerClass);
         try {
-            return classLoader.findClass(RAW_CLASS_NAME);
+            var definedClasses = Maps.<String, Class<?>>newHashMap();
+            for(var function : functionClasses.entrySet()) {
+                definedClasses.put(function.getKey(), classLoader.loadClass(function.getValue()));
+            }
+            return new CompiledCode(
+                    classes.containsKey(RAW_CLASS_NAME) ? classLoader.loadClass(RAW_CLASS_NAME) : null,
+                    definedClasses
+            );
         } catch (ClassNotFoundException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Defines classes read from the {@link BytecodeCache}, and links and initializes them right away so classes that
+     * no longer verify against the engine are caught here instead of at their first call.
+     * @param classes The raw bytes of each class, keyed by class name.
+     * @param functionClasses The name of the class each function was compiled into.
+     * @return The defined classes, or empty if they should be compiled again.
+     */
+    public static Optional<CompiledCode> defineCachedClasses(Map<String, byte[]> classes, Map<String, String> functionClasses) {
+        try {
+            var compiledCode = CodegenContext.defineClasses(classes, functionClasses);
+            for(var clazz : compiledCode.functionClasses().values()) {
+                Class.forName(clazz.getName(), true, clazz.getClassLoader());
+            }
+            return Optional.of(compiledCode);
+        } catch (RuntimeException | LinkageError | ClassNotFoundException e) {
+            System.out.println("Cached scripts no longer load against this engine, recompiling: " + e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * The class a top-level function and its lambdas are compiled into.
+     * @param functionName The name of the function.
+     * @return The descriptor of the class.
+     */
+    public static ClassDesc functionClass(String functionName) {
+        return ClassDesc.of(
+                ACTION_CLASS_DESC.packageName(),
+                CodegenContext.escapeName(ACTION_CLASS_DESC.displayName() + "$fn$", functionName)
+        );
+    }
+
+    public static String rawClassName(ClassDesc classDesc) {
+        return classDesc.packageName() + "." + classDesc.displayName();
+    }
+
     /**
      * Converts a resource location to a valid method name.
      * @param name The resource location to convert.
@@ -105,11 +246,21 @@ public class CodegenContext {
     }
 
     /**
-     * Handles the overarching transformations of actions into a class file.
-     * @param refs The references to include in the transformation.
-     * @return The raw bytes of the new class created.
+     * Handles the overarching transformations of actions into class files.
+     * @param cc The context to compile with.
+     * @param functions The functions to compile, each into a class of its own.
+     * @param handlers Every loaded function, to compile event dispatchers for into the root class.
+     * @param functionClasses Receives the class name of each compiled function.
+     * @param functionDependencies Receives the user functions each compiled function looked up.
+     * @return The raw bytes of each new class created, keyed by class name.
      */
-    private static byte[] compileClassBytecode(List<Pair<String, SchemaExpression>> refs, Map<String, StructType> userTypes) {
+    private static Map<String, byte[]> compileClassBytecode(
+            CodegenContext cc,
+            List<Pair<String, SchemaExpression>> functions,
+            List<Pair<String, SchemaExpression>> handlers,
+            Map<String, String> functionClasses,
+            Map<String, Set<String>> functionDependencies
+    ) {
         var classFile = ClassFile.of();
 
         classFile = classFile.withOptions(
@@ -117,70 +268,127 @@ public class CodegenContext {
                         ClassHierarchyResolver.ofClassLoading(RuntimeValue.class.getClassLoader())
                 )
         );
-        return classFile.build(
-                ACTION_CLASS_DESC,
-                classBuilder -> {
-                    var cc = new CodegenContext();
-                    CodegenContext.INSTANCE = cc;
-                    cc.classBuilder = classBuilder;
-                    cc.userTypes = userTypes;
-
-                    refs.forEach(entry -> cc.classBuilder = cc.compileAction(entry.getFirst(), entry.getSecond(), -1, Lists.newArrayList()));
-                    while(!cc.requestedSchemas.isEmpty()) {
-                        var oldSchemas = cc.requestedSchemas.stream().toList();
-                        cc.requestedSchemas.clear();
-                        oldSchemas.forEach(entry -> cc.classBuilder = cc.compileAction(entry.name(), entry.schema(), entry.freeLocals(), entry.stackFrames()));
-                    }
 
-                    for(var field : cc.staticClasses.entrySet()) {
-                        cc.classBuilder = cc.classBuilder.withField(
-                                field.getKey(),
-                                CodegenUtil.ofClass(field.getValue()),
-                                fb -> fb.withFlags(AccessFlag.PUBLIC, AccessFlag.STATIC)
-                        );
-                    }
-
-                    cc.classBuilder = cc.classBuilder.withMethod(
-                            "$static_init",
-                            MethodTypeDesc.of(CodegenUtil.ofVoid()),
-                            AccessFlag.PUBLIC.mask() | AccessFlag.STATIC.mask(),
-                            methodBuilder -> {
-                                methodBuilder.withCode(codeBuilder -> {
-                                    for(var entry : cc.staticClasses.keySet()) {
-                                        codeBuilder.getstatic(
-                                                CodegenUtil.ofClass(CodegenContext.class),
-                                                "INSTANCE",
-                                                CodegenUtil.ofClass(CodegenContext.class)
-                                        );
-                                        codeBuilder.getfield(
-                                                CodegenUtil.ofClass(CodegenContext.class),
-                                                "staticValues",
-                                                CodegenUtil.ofClass(Map.class)
-                                        );
-                                        codeBuilder.loadConstant(entry);
-                                        codeBuilder.invokeinterface(
-                                                CodegenUtil.ofClass(Map.class),
-                                                "get",
-                                                MethodTypeDesc.of(
-                                                        CodegenUtil.ofClass(Object.class),
-                                                        List.of(CodegenUtil.ofClass(Object.class))
-                                                )
-                                        );
+        var classes = Maps.<String, byte[]>newLinkedHashMap();
+        for(var function : functions) {
+            var classDesc = CodegenContext.functionClass(function.getFirst());
+            cc.functionDependencies = Sets.newHashSet();
+            classes.put(
+                    CodegenContext.rawClassName(classDesc),
+                    classFile.build(
+                            classDesc,
+                            classBuilder -> {
+                                cc.currentClass = classDesc;
+                                cc.classBuilder = classBuilder;
+
+                                cc.classBuilder = cc.compileAction(function.getFirst(), function.getSecond(), -1, Lists.newArrayList());
+                                cc.compileRequestedActions();
+                            }
+                    )
+            );
+            functionClasses.put(function.getFirst(), CodegenContext.rawClassName(classDesc));
+            functionDependencies.put(function.getFirst(), cc.functionDependencies);
+        }
+        cc.functionDependencies = Sets.newHashSet();
+
+        classes.put(
+                RAW_CLASS_NAME,
+                classFile.build(
+                        ACTION_CLASS_DESC,
+                        classBuilder -> {
+                            cc.currentClass = ACTION_CLASS_DESC;
+                            cc.classBuilder = classBuilder;
+
+                            for(var event : CodegenContext.eventHandlers(handlers).entrySet()) {
+                                cc.classBuilder = cc.compileEventDispatcher(event.getKey(), event.getValue());
+                            }
+                            cc.compileRequestedActions();
+
+                            for(var field : cc.staticClasses.entrySet()) {
+                                cc.classBuilder = cc.classBuilder.withField(
+                                        field.getKey(),
+                                        CodegenUtil.ofClass(field.getValue()),
+                                        fb -> fb.withFlags(AccessFlag.PUBLIC, AccessFlag.STATIC)
+                                );
+                            }
 
-                                        var reqClass = cc.staticClasses.get(entry);
-                                        codeBuilder.checkcast(CodegenUtil.ofClass(reqClass));
-                                        codeBuilder.putstatic(
-                                                ACTION_CLASS_DESC,
-                                                entry,
-                                                CodegenUtil.ofClass(reqClass)
-                                        );
+                            cc.classBuilder = cc.classBuilder.withMethod(
+                                    "$static_init",
+                                    MethodTypeDesc.of(CodegenUtil.ofVoid()),
+                                    AccessFlag.PUBLIC.mask() | AccessFlag.STATIC.mask(),
+                                    methodBuilder -> {
+                                        methodBuilder.withCode(codeBuilder -> {
+                                            for(var entry : cc.staticClasses.keySet()) {
+                                                codeBuilder.getstatic(
+                                                        CodegenUtil.ofClass(CodegenContext.class),
+                                                        "INSTANCE",
+                                                        CodegenUtil.ofClass(CodegenContext.class)
+                                                );
+                                                codeBuilder.getfield(
+                                                        CodegenUtil.ofClass(CodegenContext.class),
+                                                        "staticValues",
+                                                        CodegenUtil.ofClass(Map.class)
+                                                );
+                                                codeBuilder.loadConstant(entry);
+                                                codeBuilder.invokeinterface(
+                                                        CodegenUtil.ofClass(Map.class),
+                                                        "get",
+                                                        MethodTypeDesc.of(
+                                                                CodegenUtil.ofClass(Object.class),
+                                                                List.of(CodegenUtil.ofClass(Object.class))
+                                                        )
+                                                );
+
+                                                var reqClass = cc.staticClasses.get(entry);
+                                                codeBuilder.checkcast(CodegenUtil.ofClass(reqClass));
+                                                codeBuilder.putstatic(
+                                                        ACTION_CLASS_DESC,
+                                                        entry,
+                                                        CodegenUtil.ofClass(reqClass)
+                                                );
+                                            }
+                                            codeBuilder.return_();
+                                        });
                                     }
-                                    codeBuilder.return_();
-                                });
-                            }
-                    );
-                }
+                            );
+                        }
+                )
         );
+        return classes;
+    }
+
+    /**
+     * Compiles every action requested while compiling the current class, such as lambdas, into that same class.
+     */
+    private void compileRequestedActions() {
+        while(!this.requestedSchemas.isEmpty()) {
+            var oldSchemas = this.requestedSchemas.stream().toList();
+            this.requestedSchemas.clear();
+            oldSchemas.forEach(entry -> {
+                this.asyncSpan = entry.asyncSpan();
+                this.asyncCapturedFrames = entry.asyncCapturedFrames();
+                this.classBuilder = this.compileAction(entry.name(), entry.schema(), entry.freeLocals(), entry.stackFrames());
+                this.asyncSpan = null;
+                this.asyncCapturedFrames = 0;
+            });
+        }
+    }
+
+    /**
+     * The class currently being compiled into.
+     * @return The descriptor of the class.
+     */
+    public ClassDesc currentClass() {
+        return this.currentClass;
+    }
+
+    /**
+     * Records that the function being compiled looked up a user function while resolving a call, whether or not it
+     * exists, so it is compiled again if that function's signature changes or it is added.
+     * @param name The name of the user function.
+     */
+    public void dependOnFunction(String name) {
+        this.functionDependencies.add(name);
     }
 
     public void requestAction(String name, SchemaExpression action, int highestLocal, List<StackFrame> stackFrames) {
@@ -188,10 +396,55 @@ public class CodegenContext {
                 name,
                 action,
                 highestLocal,
-                Lists.newArrayList(stackFrames)
+                Lists.newArrayList(stackFrames),
+                this.asyncSpan,
+                this.asyncCapturedFrames
         ));
     }
 
+    /**
+     * Compiles code whose requested actions will run off the server thread, such as the body of an `async` block.
+     * Those actions, and any lambdas inside them, are checked by {@link CodegenContext#requireServerThread(String)}.
+     * @param span The span of the `async` block, reported if its code touches game state.
+     * @param body Compiles the code.
+     * @return This.
+     */
+    public CodegenContext compileAsync(SpanData span, Runnable body) {
+        var previous = this.asyncSpan;
+        var previousCapturedFrames = this.asyncCapturedFrames;
+        if(previous == null) {
+            this.asyncCapturedFrames = this.stackFrames.size();
+        }
+        this.asyncSpan = span;
+        try {
+            body.run();
+        } finally {
+            this.asyncSpan = previous;
+            this.asyncCapturedFrames = previousCapturedFrames;
+        }
+        return this;
+    }
+
+    /**
+     * Fails compilation if the code being compiled runs off the server thread.
+     * @param description What the code tried to do, used in the error message.
+     */
+    public void requireServerThread(String description) {
+        if(this.asyncSpan != null) {
+            throw new ParsingException(description + " can only be used on the server thread, not inside an `async` block.", this.asyncSpan);
+        }
+    }
+
+    private void checkThreadSafety(ClassDesc owner, String functionName) {
+        if(this.asyncSpan == null) {
+            return;
+        }
+        if(SERVER_THREAD_CLASSES.contains(owner)
+                || (owner.equals(CodegenUtil.ofClass(GlobalNamespace.class)) && SERVER_THREAD_FUNCTIONS.contains(functionName))) {
+            this.requireServerThread("`" + functionName.replace("__", ".") + "`");
+        }
+    }
+
     public int highestLocal() {
         int i = -1;
         for(var frame : this.stackFrames) {
@@ -221,8 +474,8 @@ public class CodegenContext {
     public ClassBuilder compileAction(String name, SchemaExpression action, int freeLocals, List<StackFrame> frames) {
         var returnType = action.typeSet().returns().flatten() instanceof VoidType ? void.class : RuntimeValue.class;
         var parameters = new ArrayList<ClassDesc>();
-        for(int i = 0; i <= freeLocals; i++) {
-            parameters.add(CodegenUtil.ofClass(Object.class));
+        if(freeLocals != -1) {
+            parameters.add(CodegenUtil.ofClass(Object[].class));
         }
         for(var parameter : action.typeSet().parameters()) {
             parameters.add(parameter.typePattern().classDescType());
@@ -234,6 +487,7 @@ public class CodegenContext {
                 AccessFlag.STATIC.mask() + AccessFlag.PUBLIC.mask(),
                 methodBuilder -> {
                     this.stackFrames = frames;
+                    this.exitHandlers = Lists.newArrayList();
 
                     this.methodBuilder = methodBuilder;
                     methodBuilder.withCode(codeBuilder -> {
@@ -245,10 +499,11 @@ public class CodegenContext {
 
                         this.pushFrame(startLabel, endLabel);
 
-                        int idx = freeLocals + 1;
-                        if(freeLocals == -1) {
-                            idx = 0;
+                        if(freeLocals != -1) {
+                            this.unpackCapturedLocals(freeLocals, action.typeSet().parameters().size());
                         }
+
+                        int idx = freeLocals + 1;
                         for(var parameter : action.typeSet().parameters()) {
                             this.stackFrames.getLast().methodLocals.put(parameter.name(), idx);
                             this.stackFrames.getLast().methodLocalTypes.put(parameter.name(), parameter.typePattern());
@@ -276,6 +531,193 @@ public class CodegenContext {
         );
     }
 
+    /**
+     * Moves the captured environment of a lambda back into the local slots it had in the enclosing method.
+     * Lambdas receive their captures as a single `Object[]` in slot 0 followed by their own parameters,
+     * while their body expects captured local `i` in slot `i` and the parameters right after the captures.
+     * @param freeLocals The highest local slot captured from the enclosing method.
+     * @param parameterCount The amount of parameters the lambda takes.
+     */
+    private void unpackCapturedLocals(int freeLocals, int parameterCount) {
+        for(int i = parameterCount - 1; i >= 0; i--) {
+            this.codeBuilder.aload(1 + i).astore(freeLocals + 1 + i);
+        }
+        for(int i = freeLocals; i >= 0; i--) {
+            this.codeBuilder.aload(0).loadConstant(i).aaload().astore(i);
+        }
+        int reserved;
+        do {
+            reserved = this.codeBuilder.allocateLocal(TypeKind.REFERENCE);
+        } while(reserved < freeLocals + parameterCount);
+    }
+
+    /**
+     * Groups the event handlers in a list of references by the event they subscribe to, preserving order.
+     * @param refs The references to group.
+     * @return A map of event names to their handlers.
+     */
+    public static Map<String, List<Pair<String, SchemaExpression>>> eventHandlers(List<Pair<String, SchemaExpression>> refs) {
+        var events = Maps.<String, List<Pair<String, SchemaExpression>>>newLinkedHashMap();
+        for(var ref : refs) {
+            ref.getSecond().eventName().ifPresent(eventName ->
+                    events.computeIfAbsent(eventName, _ -> Lists.newArrayList()).add(ref));
+        }
+        return events;
+    }
+
+    /**
+     * Converts an event name to the name of its fused dispatch method. Characters other than letters, digits and `_`
+     * are escaped as `$` and four hex digits, so distinct event names never share a method.
+     * @param eventName The event name to convert.
+     * @return The converted method name.
+     */
+    public static String eventMethodName(String eventName) {
+        return CodegenContext.escapeName("$event$", eventName);
+    }
+
+    /**
+     * Appends a name to a prefix, escaping characters other than letters, digits and `_` as `$` and four hex digits.
+     */
+    private static String escapeName(String prefix, String name) {
+        var builder = new StringBuilder(prefix);
+        for(var c : name.toCharArray()) {
+            if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_') {
+                builder.append(c);
+            } else {
+                builder.append('$').append(String.format("%04x", (int) c));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Determines the amount of parameters the dispatch method of an event takes, from the arguments the event is
+     * fired with. Events no call site fires take whatever their handlers agree on.
+     * @param eventName The name of the event.
+     * @param handlers The handlers of the event.
+     * @return The parameter count.
+     * @throws ParsingException If a handler takes a different amount of parameters.
+     */
+    public static int eventParameterCount(String eventName, List<Pair<String, SchemaExpression>> handlers) {
+        var expected = DslActionManager.EVENT_PARAMETER_COUNTS.get(eventName);
+        var count = expected != null ? expected : handlers.getFirst().getSecond().typeSet().parameters().size();
+        for(var handler : handlers) {
+            var parameters = handler.getSecond().typeSet().parameters().size();
+            if(parameters == count) {
+                continue;
+            }
+            if(expected != null) {
+                throw new ParsingException(
+                        "Handler `" + handler.getFirst() + "` of event `" + eventName + "` takes " + parameters
+                                + " parameters, but the event is fired with " + count + ".",
+                        handler.getSecond().keywordSpan()
+                );
+            }
+            throw new ParsingException(
+                    "Handlers of event `" + eventName + "` take different amounts of parameters: `"
+                            + handlers.getFirst().getFirst() + "` takes " + count + ", but `" + handler.getFirst()
+                            + "` takes " + parameters + ".",
+                    handler.getSecond().keywordSpan()
+            );
+        }
+        return count;
+    }
+
+    /**
+     * Compiles a synthetic method that calls every handler of an event in order, returning false as soon as one
+     * of them cancels the event. A handler that throws is reported and skipped, like a standalone invocation would be.
+     * @param eventName The name of the event.
+     * @param handlers The handlers subscribed to the event.
+     * @return This.
+     */
+    public ClassBuilder compileEventDispatcher(String eventName, List<Pair<String, SchemaExpression>> handlers) {
+        var parameterCount = CodegenContext.eventParameterCount(eventName, handlers);
+        return this.classBuilder.withMethod(
+                CodegenContext.eventMethodName(eventName),
+                MethodTypeDesc.of(
+                        CodegenUtil.ofBoolean(),
+                        Collections.nCopies(parameterCount, CodegenUtil.ofClass(RuntimeValue.class))
+                ),
+                AccessFlag.STATIC.mask() + AccessFlag.PUBLIC.mask(),
+                methodBuilder -> methodBuilder.withCode(codeBuilder -> {
+                    var sampleSlot = codeBuilder.allocateLocal(TypeKind.REFERENCE);
+                    for(var handler : handlers) {
+                        var typeSet = handler.getSecond().typeSet();
+                        var returnsValue = !(typeSet.returns().flatten() instanceof VoidType);
+                        codeBuilder.trying(
+                                blockBuilder -> {
+                                    blockBuilder.invokestatic(
+                                            CodegenUtil.ofClass(ScriptProfiler.class),
+                                            "enter",
+                                            MethodTypeDesc.of(CodegenUtil.ofClass(ScriptProfiler.Sample.class))
+                                    );
+                                    blockBuilder.astore(sampleSlot);
+
+                                    var parameters = new ArrayList<ClassDesc>();
+                                    for(int i = 0; i < parameterCount; i++) {
+                                        var parameterType = typeSet.parameters().get(i).typePattern().classDescType();
+                                        parameters.add(parameterType);
+                                        blockBuilder.aload(i);
+                                        blockBuilder.checkcast(parameterType);
+                                    }
+                                    blockBuilder.invokedynamic(ScriptLinker.call(
+                                            handler.getFirst(),
+                                            MethodTypeDesc.of(
+                                                    CodegenUtil.ofClass(returnsValue ? RuntimeValue.class : void.class),
+                                                    parameters
+                                            )
+                                    ));
+                                    blockBuilder.aload(sampleSlot);
+                                    blockBuilder.loadConstant("function/" + handler.getFirst());
+                                    blockBuilder.invokestatic(
+                                            CodegenUtil.ofClass(ScriptProfiler.class),
+                                            "exit",
+                                            MethodTypeDesc.of(
+                                                    CodegenUtil.ofVoid(),
+                                                    List.of(
+                                                            CodegenUtil.ofClass(ScriptProfiler.Sample.class),
+                                                            CodegenUtil.ofClass(String.class)
+                                                    )
+                                            )
+                                    );
+                                    if(returnsValue) {
+                                        blockBuilder.invokestatic(
+                                                CodegenUtil.ofClass(DslActionManager.class),
+                                                "eventResult",
+                                                MethodTypeDesc.of(
+                                                        CodegenUtil.ofBoolean(),
+                                                        List.of(CodegenUtil.ofClass(RuntimeValue.class))
+                                                )
+                                        );
+                                        blockBuilder.ifThen(
+                                                Opcode.IFEQ,
+                                                cancelledBuilder -> cancelledBuilder.iconst_0().ireturn()
+                                        );
+                                    }
+                                },
+                                catchBuilder -> catchBuilder.catching(
+                                        CodegenUtil.ofClass(Throwable.class),
+                                        handlerBuilder -> handlerBuilder
+                                                .loadConstant(handler.getFirst())
+                                                .invokestatic(
+                                                        CodegenUtil.ofClass(DslActionManager.class),
+                                                        "reportHandlerFailure",
+                                                        MethodTypeDesc.of(
+                                                                CodegenUtil.ofVoid(),
+                                                                List.of(
+                                                                        CodegenUtil.ofClass(Throwable.class),
+                                                                        CodegenUtil.ofClass(String.class)
+                                                                )
+                                                        )
+                                                )
+                                )
+                        );
+                    }
+                    codeBuilder.iconst_1().ireturn();
+                })
+        );
+    }
+
     /**
      * Exposes the underlying CodeBuilder for use by {@link Expression}.
      * @param function The function to apply.
@@ -394,6 +836,25 @@ public class CodegenContext {
         return this;
     }
 
+    /**
+     * Used by {@link Expression#compile(CodegenContext)}.
+     * Emits a {@link ScriptWatchdog} checkpoint, which should be placed at the head of every loop.
+     * @param span The span of the loop, reported if the script is aborted there.
+     * @return This.
+     */
+    public CodegenContext loopCheckpoint(SpanData span) {
+        this.codeBuilder.loadConstant(span == null ? "<unknown>" : span.debugInfo().toString());
+        this.codeBuilder.invokestatic(
+                CodegenUtil.ofClass(ScriptWatchdog.class),
+                "checkpoint",
+                MethodTypeDesc.of(
+                        CodegenUtil.ofVoid(),
+                        List.of(CodegenUtil.ofClass(String.class))
+                )
+        );
+        return this;
+    }
+
     /**
      * Used by {@link Expression#compile(CodegenContext)}.
      * Turns a `double` into a `Double` at runtime.
@@ -429,6 +890,113 @@ public class CodegenContext {
         return this;
     }
 
+    /**
+     * Used by {@link Expression#compile(CodegenContext)}.
+     * Pushes a number-typed Expression onto the stack as a raw `double`.
+     * Literals and statically-typed arithmetic never allocate an {@link RNumber}, anything else is unboxed.
+     * @return This.
+     */
+    public CodegenContext pushUnboxedNumber(Expression expression) {
+        var flattened = expression == null ? null : expression.flatten();
+        if(flattened instanceof LateResolvedFunctionCall functionCall) {
+            flattened = functionCall.resolve(this).flatten();
+        }
+        switch (flattened) {
+            case NumberExpression(double value) -> this.constant(value);
+            case NumberArithmeticExpression arithmetic -> arithmetic.compileUnboxed(this);
+            case null, default -> this.pushValue(expression).unboxNumber();
+        }
+        return this;
+    }
+
+    /**
+     * Checks if {@link CodegenContext#pushUnboxedNumber(Expression)} computes an expression directly, instead of
+     * unboxing a value that may be null at runtime.
+     * @return True if the expression is a literal or statically-typed arithmetic.
+     */
+    public boolean isUnboxedNumber(Expression expression) {
+        var flattened = expression == null ? null : expression.flatten();
+        if(flattened instanceof LateResolvedFunctionCall functionCall) {
+            flattened = functionCall.resolve(this).flatten();
+        }
+        return flattened instanceof NumberExpression || flattened instanceof NumberArithmeticExpression;
+    }
+
+    /**
+     * Checks if an expression is statically known to produce a number.
+     * @return True if the expression's type is `number`.
+     */
+    public boolean isStaticallyNumber(Expression expression) {
+        return expression != null && this.getTypeOf(expression).flatten() instanceof NumberType;
+    }
+
+    /**
+     * Used by {@link Expression#compile(CodegenContext)}.
+     * Turns an `int` of 0 or 1 into an {@link RBoolean} at runtime.
+     * @return This.
+     */
+    public CodegenContext boxBoolean() {
+        this.codeBuilder.invokestatic(
+                CodegenUtil.ofClass(RBoolean.class),
+                "of",
+                MethodTypeDesc.of(
+                        CodegenUtil.ofClass(RBoolean.class),
+                        List.of(CodegenUtil.ofBoolean())
+                )
+        );
+        return this;
+    }
+
+    /**
+     * Used by {@link Expression#compile(CodegenContext)}.
+     * Turns an {@link RBoolean} into an `int` of 0 or 1 at runtime.
+     * @return This.
+     */
+    public CodegenContext unboxBoolean() {
+        this.codeBuilder.checkcast(CodegenUtil.ofClass(RBoolean.class));
+        this.codeBuilder.invokevirtual(
+                CodegenUtil.ofClass(RBoolean.class),
+                "asInt",
+                MethodTypeDesc.of(
+                        CodegenUtil.ofInt(),
+                        List.of()
+                )
+        );
+        return this;
+    }
+
+    /**
+     * Used by {@link Expression#compile(CodegenContext)}.
+     * Pushes a boolean-typed Expression onto the stack as an `int` of 0 or 1.
+     * Literals, comparisons and `&&`/`||` never allocate an {@link RBoolean}, anything else is unboxed.
+     * @return This.
+     */
+    public CodegenContext pushUnboxedBoolean(Expression expression) {
+        switch (expression == null ? null : expression.flatten()) {
+            case BooleanExpression(boolean value) -> this.constant(value ? 1 : 0);
+            case AndExpression and -> and.compileUnboxed(this);
+            case OrExpression or -> or.compileUnboxed(this);
+            case EqualToExpression equalTo -> equalTo.compileUnboxed(this);
+            case GreaterThanExpression greaterThan -> greaterThan.compileUnboxed(this);
+            case LessThanExpression lessThan -> lessThan.compileUnboxed(this);
+            case null, default -> this.pushValue(expression).unboxBoolean();
+        }
+        return this;
+    }
+
+    /**
+     * Checks if {@link CodegenContext#pushUnboxedBoolean(Expression)} computes an expression directly, instead of
+     * unboxing a value that may be null at runtime.
+     * @return True if the expression is a literal, a comparison or `&&`/`||`.
+     */
+    public boolean isUnboxedBoolean(Expression expression) {
+        return switch (expression == null ? null : expression.flatten()) {
+            case BooleanExpression _, AndExpression _, OrExpression _, EqualToExpression _,
+                 GreaterThanExpression _, LessThanExpression _ -> true;
+            case null, default -> false;
+        };
+    }
+
     public CodegenContext typecheck(Class<?> expected) {
         this.codeBuilder.checkcast(CodegenUtil.ofClass(expected));
         return this;
@@ -553,13 +1121,18 @@ public class CodegenContext {
     }
 
     public CodegenContext pushLocal(String variable, SpanData spanData) {
-        for(var frame : this.stackFrames.reversed()) {
+        for(int i = this.stackFrames.size() - 1; i >= 0; i--) {
+            var frame = this.stackFrames.get(i);
             if(!frame.methodLocals.containsKey(variable)) {
                 continue;
             }
             if(!frame.methodLocalTypes.containsKey(variable)) {
                 continue;
             }
+            // a function from outside could touch game state, which the `async` block's checks never saw
+            if(i < this.asyncCapturedFrames && frame.methodLocalTypes.get(variable).flatten() instanceof FunctionType) {
+                this.requireServerThread("The function `" + variable + "` from outside the block");
+            }
             return this.bytecodeUnsafe(cb -> cb.loadLocal(frame.methodLocalTypes.get(variable).classFileType(), frame.methodLocals.get(variable)));
         }
         throw new ParsingException("Variable `" + variable + "` in method doesn't exist yet!", spanData);
@@ -581,6 +1154,29 @@ public class CodegenContext {
         return this;
     }
 
+    /**
+     * Registers code that a `return` inside the current block has to run before leaving the method.
+     */
+    public CodegenContext pushExitHandler(Runnable handler) {
+        this.exitHandlers.add(handler);
+        return this;
+    }
+
+    public CodegenContext popExitHandler() {
+        this.exitHandlers.removeLast();
+        return this;
+    }
+
+    /**
+     * Emits every registered exit handler, innermost first. The operand stack is left as it was.
+     */
+    public CodegenContext runExitHandlers() {
+        for(var handler : this.exitHandlers.reversed()) {
+            handler.run();
+        }
+        return this;
+    }
+
     public StackFrame getFrame() {
         return this.stackFrames.getLast();
     }
@@ -590,6 +1186,7 @@ public class CodegenContext {
     }
 
     public CodegenContext invokeVirtual(ClassDesc owner, String functionName, MethodTypeDesc desc) {
+        this.checkThreadSafety(owner, functionName);
         this.codeBuilder.invokevirtual(
                 owner,
                 functionName,
@@ -608,6 +1205,7 @@ public class CodegenContext {
     }
 
     public CodegenContext invokeStatic(ClassDesc owner, String functionName, MethodTypeDesc desc) {
+        this.checkThreadSafety(owner, functionName);
         this.codeBuilder.invokestatic(
                 owner,
                 functionName,
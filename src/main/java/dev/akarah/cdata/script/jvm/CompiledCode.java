@@ -0,0 +1,18 @@
+package dev.akarah.cdata.script.jvm;
+
+import java.util.Map;
+
+/**
+ * The classes produced by a single compilation.
+ * @param rootClass The class holding event dispatchers, statics and `$static_init`, or null if the classes were
+ *                  restored from the {@link BytecodeCache} without one.
+ * @param functionClasses The class each top-level function was compiled into.
+ */
+public record CompiledCode(
+        Class<?> rootClass,
+        Map<String, Class<?>> functionClasses
+) {
+    public Class<?> classOf(String functionName) {
+        return this.functionClasses.getOrDefault(functionName, this.rootClass);
+    }
+}
@@ -0,0 +1,185 @@
+package dev.akarah.cdata.script.jvm;
+
+import dev.akarah.cdata.script.expr.ast.func.MethodTypeHint;
+import dev.akarah.cdata.script.value.GlobalNamespace;
+import dev.akarah.cdata.script.value.RStruct;
+import dev.akarah.cdata.script.value.RuntimeValue;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+
+/**
+ * Dispatches script calls whose receiver is only known to be `any` at compile time.
+ * <p>
+ * Every call site starts out unlinked. The first time it sees a receiver class, it looks up the matching
+ * {@link MethodTypeHint} function the same way {@link dev.akarah.cdata.script.expr.ast.func.LateResolvedFunctionCall}
+ * would for that type, and prepends a guarded direct call to it. After {@link DynamicDispatch#MAX_POLYMORPHISM}
+ * receiver classes the site stops growing and looks targets up in a per-class table instead.
+ */
+public class DynamicDispatch {
+    public static int MAX_POLYMORPHISM = 4;
+
+    private static final MethodHandle FALLBACK;
+    private static final MethodHandle IS_CLASS;
+    private static final MethodHandle SELECT;
+    private static final MethodHandle STRUCT_GET;
+    private static final MethodHandle STRUCT_PUT;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            FALLBACK = lookup.findVirtual(
+                    InlineCacheCallSite.class,
+                    "fallback",
+                    MethodType.methodType(Object.class, Object[].class)
+            );
+            IS_CLASS = lookup.findStatic(
+                    DynamicDispatch.class,
+                    "isClass",
+                    MethodType.methodType(boolean.class, Class.class, Object.class)
+            );
+            SELECT = lookup.findVirtual(
+                    InlineCacheCallSite.class,
+                    "select",
+                    MethodType.methodType(MethodHandle.class, Object.class)
+            );
+            STRUCT_GET = lookup.findStatic(
+                    RStruct.class,
+                    "get",
+                    MethodType.methodType(RuntimeValue.class, RStruct.class, String.class, RuntimeValue.class)
+            );
+            STRUCT_PUT = lookup.findStatic(
+                    RStruct.class,
+                    "put",
+                    MethodType.methodType(void.class, RStruct.class, String.class, RuntimeValue.class)
+            );
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A call site that caches the targets of the receiver classes it has seen.
+     */
+    public static class InlineCacheCallSite extends MutableCallSite {
+        final String functionName;
+        final ClassValue<MethodHandle> targets = new ClassValue<>() {
+            @Override
+            protected MethodHandle computeValue(Class<?> receiverClass) {
+                return InlineCacheCallSite.this.targetFor(receiverClass);
+            }
+        };
+        int depth = 0;
+
+        InlineCacheCallSite(String functionName, MethodType type) {
+            super(type);
+            this.functionName = functionName;
+            this.setTarget(FALLBACK.bindTo(this).asCollector(Object[].class, type.parameterCount()).asType(type));
+        }
+
+        /**
+         * Called whenever no cached entry matched the receiver.
+         */
+        Object fallback(Object[] arguments) throws Throwable {
+            return this.link(this.receiverClass(arguments[0])).invokeWithArguments(arguments);
+        }
+
+        private synchronized MethodHandle link(Class<?> receiverClass) {
+            var target = this.targets.get(receiverClass);
+            if(this.depth < MAX_POLYMORPHISM) {
+                this.depth++;
+                this.setTarget(MethodHandles.guardWithTest(
+                        this.receiverTest(receiverClass),
+                        target,
+                        this.getTarget()
+                ));
+            } else if(this.depth == MAX_POLYMORPHISM) {
+                this.depth++;
+                this.setTarget(MethodHandles.foldArguments(
+                        MethodHandles.exactInvoker(this.type()),
+                        SELECT.bindTo(this).asType(MethodType.methodType(MethodHandle.class, this.type().parameterType(0)))
+                ));
+            }
+            return target;
+        }
+
+        MethodHandle select(Object receiver) {
+            return this.targets.get(this.receiverClass(receiver));
+        }
+
+        private Class<?> receiverClass(Object receiver) {
+            if(receiver == null) {
+                throw new RuntimeException("Can not call `" + this.functionName + "` on null");
+            }
+            return receiver.getClass();
+        }
+
+        private MethodHandle receiverTest(Class<?> receiverClass) {
+            var test = IS_CLASS.bindTo(receiverClass)
+                    .asType(MethodType.methodType(boolean.class, this.type().parameterType(0)));
+            return MethodHandles.dropArguments(test, 1, this.type().parameterList().subList(1, this.type().parameterCount()));
+        }
+
+        private MethodHandle targetFor(Class<?> receiverClass) {
+            var arity = this.type().parameterCount();
+            var handle = DynamicDispatch.findMethod(receiverClass, this.functionName, arity)
+                    .or(() -> DynamicDispatch.findStructField(receiverClass, this.functionName, arity))
+                    .or(() -> DynamicDispatch.findMethod(GlobalNamespace.class, this.functionName, arity))
+                    .orElseThrow(() -> new RuntimeException(
+                            "Can not resolve function `" + this.functionName + "` for a value of " + receiverClass.getSimpleName()
+                    ));
+            return handle.asType(this.type());
+        }
+    }
+
+    /**
+     * The bootstrap method of every dynamically dispatched call.
+     * @param name The name of the script function being called, with `.` replaced by `__`.
+     * @param type The type of the call, where every parameter and the return value are {@link RuntimeValue}s.
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type) {
+        return new InlineCacheCallSite(name, type);
+    }
+
+    private static boolean isClass(Class<?> expected, Object receiver) {
+        return receiver != null && receiver.getClass() == expected;
+    }
+
+    /**
+     * Finds a function on a value class by its plain name, or by a type-qualified name ending in it.
+     */
+    private static Optional<MethodHandle> findMethod(Class<?> owner, String functionName, int arity) {
+        var plainName = functionName.replace(".", "__");
+        for(var clazz = owner; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            var method = Arrays.stream(clazz.getDeclaredMethods())
+                    .filter(x -> x.getName().equals(plainName) || x.getName().endsWith("__" + plainName))
+                    .filter(x -> Modifier.isStatic(x.getModifiers()) && Modifier.isPublic(x.getModifiers()))
+                    .filter(x -> x.getParameterCount() == arity && x.isAnnotationPresent(MethodTypeHint.class))
+                    .filter(x -> Arrays.stream(x.getParameterTypes()).allMatch(RuntimeValue.class::isAssignableFrom))
+                    .min(Comparator.comparing((Method x) -> !x.getName().equals(plainName)));
+            if(method.isPresent()) {
+                try {
+                    return Optional.of(MethodHandles.publicLookup().unreflect(method.get()));
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<MethodHandle> findStructField(Class<?> receiverClass, String functionName, int arity) {
+        if(receiverClass != RStruct.class) {
+            return Optional.empty();
+        }
+        return switch (arity) {
+            case 1 -> Optional.of(MethodHandles.insertArguments(STRUCT_GET, 1, functionName, null));
+            case 2 -> Optional.of(MethodHandles.insertArguments(STRUCT_PUT, 1, functionName));
+            default -> Optional.empty();
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package dev.akarah.cdata.script.jvm;
+
+import dev.akarah.cdata.registry.Resources;
+import dev.akarah.cdata.script.dsl.DslActionManager;
+import dev.akarah.cdata.script.value.*;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenCustomHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the first block of an `async` statement on a worker pool, then hands its result back to the server thread
+ * through the {@link dev.akarah.cdata.Scheduler}, where the `then` block runs.
+ * <p>
+ * {@link CodegenContext} rejects code in `async` blocks that touches game state or calls code it did not check, so only
+ * pure computations reach the pool. Locals the block captures are copied by {@link ScriptAsync#isolate(Object)} when
+ * it starts, so it never shares a mutable value with the server thread. Each block is armed with its own
+ * {@link ScriptWatchdog} budget on the thread it runs on.
+ */
+public class ScriptAsync {
+    static ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    /**
+     * Called by compiled code for every `async` statement.
+     * @param compute The `async` block, which takes no parameters and may return a value.
+     * @param then The `then` block, which takes the result of `compute` if it declared one.
+     * @param location A description of the `async` statement, used in error messages.
+     */
+    public static void submit(RFunction compute, RFunction then, String location) {
+        POOL.execute(() -> {
+            Object result;
+            var armed = ScriptWatchdog.arm();
+            try {
+                result = compute.javaValue().invokeWithArguments();
+            } catch (Throwable e) {
+                DslActionManager.reportHandlerFailure(e, "async block at " + location);
+                return;
+            } finally {
+                if(armed) {
+                    ScriptWatchdog.disarm();
+                }
+            }
+            Resources.scheduler().runOnServerThread(() -> ScriptAsync.complete(then, result, location));
+        });
+    }
+
+    /**
+     * Called by compiled code on the server thread for every local an `async` block captures. Lists, dictionaries,
+     * structs, cells and nullables are copied deeply, and every other value is immutable or rejected by the compiler.
+     */
+    public static Object isolate(Object value) {
+        return ScriptAsync.isolate(value, new IdentityHashMap<>());
+    }
+
+    private static Object isolate(Object value, Map<Object, Object> copies) {
+        if(value == null) {
+            return null;
+        }
+        var existing = copies.get(value);
+        if(existing != null) {
+            return existing;
+        }
+        switch (value) {
+            case RList list -> {
+                var copy = RList.create();
+                copies.put(value, copy);
+                for(var element : list.javaValue()) {
+                    RList.add(copy, (RuntimeValue) ScriptAsync.isolate(element, copies));
+                }
+                return copy;
+            }
+            case RDict dict -> {
+                var copy = new RDict(dict.javaValue() instanceof Object2ObjectOpenCustomHashMap<RuntimeValue, RuntimeValue> custom
+                        ? new Object2ObjectOpenCustomHashMap<>(custom.strategy())
+                        : new Object2ObjectOpenHashMap<>());
+                copies.put(value, copy);
+                for(var entry : dict.javaValue().entrySet()) {
+                    RDict.put(
+                            copy,
+                            (RuntimeValue) ScriptAsync.isolate(entry.getKey(), copies),
+                            (RuntimeValue) ScriptAsync.isolate(entry.getValue(), copies)
+                    );
+                }
+                return copy;
+            }
+            case RStruct struct -> {
+                var copy = RStruct.create(struct.name());
+                copies.put(value, copy);
+                struct.forEachField((field, fieldValue) ->
+                        RStruct.put(copy, field, (RuntimeValue) ScriptAsync.isolate(fieldValue, copies)));
+                return copy;
+            }
+            case RCell cell -> {
+                var copy = RCell.create(null);
+                copies.put(value, copy);
+                RCell.set(copy, (RuntimeValue) ScriptAsync.isolate(cell.inner(), copies));
+                return copy;
+            }
+            case RNullable nullable -> {
+                return RNullable.of((RuntimeValue) ScriptAsync.isolate(nullable.javaValue().orElse(null), copies));
+            }
+            default -> {
+                return value;
+            }
+        }
+    }
+
+    private static void complete(RFunction then, Object result, String location) {
+        var armed = ScriptWatchdog.arm();
+        try {
+            if(then.javaValue().type().parameterCount() == 0) {
+                then.javaValue().invokeWithArguments();
+            } else {
+                then.javaValue().invokeWithArguments(result);
+            }
+        } catch (Throwable e) {
+            DslActionManager.reportHandlerFailure(e, "then block at " + location);
+        } finally {
+            if(armed) {
+                ScriptWatchdog.disarm();
+            }
+        }
+    }
+}
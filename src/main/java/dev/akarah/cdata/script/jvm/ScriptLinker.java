@@ -0,0 +1,109 @@
+package dev.akarah.cdata.script.jvm;
+
+import com.google.common.collect.Maps;
+
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.DynamicCallSiteDesc;
+import java.lang.constant.MethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.*;
+import java.util.Map;
+
+/**
+ * Links calls between scripts, which are compiled into a class per file.
+ * <p>
+ * Every call to a script function, including the calls event dispatchers make to their handlers, is an `invokedynamic`
+ * bound to a {@link MutableCallSite} shared by every caller of that function with that type. A reload that only
+ * recompiles some files points these call sites at the new classes, so callers that did not change keep running
+ * without being compiled again.
+ */
+public class ScriptLinker {
+    static DirectMethodHandleDesc BOOTSTRAP = MethodHandleDesc.ofMethod(
+            DirectMethodHandleDesc.Kind.STATIC,
+            CodegenUtil.ofClass(ScriptLinker.class),
+            "bootstrap",
+            MethodTypeDesc.of(
+                    CodegenUtil.ofClass(CallSite.class),
+                    CodegenUtil.ofClass(MethodHandles.Lookup.class),
+                    CodegenUtil.ofClass(String.class),
+                    CodegenUtil.ofClass(MethodType.class)
+            )
+    );
+
+    private static final MethodHandle UNLINKED;
+
+    static {
+        try {
+            UNLINKED = MethodHandles.lookup().findStatic(
+                    ScriptLinker.class,
+                    "unlinked",
+                    MethodType.methodType(Object.class, String.class, Object[].class)
+            );
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    record LinkedFunction(String name, MutableCallSite callSite) {
+
+    }
+
+    private static final Map<String, LinkedFunction> CALL_SITES = Maps.newHashMap();
+    private static Map<String, MethodHandle> FUNCTIONS = Map.of();
+
+    /**
+     * Describes a call to a script function, to be emitted as an `invokedynamic`.
+     * @param name The method name of the function.
+     * @param type The type of the function.
+     */
+    public static DynamicCallSiteDesc call(String name, MethodTypeDesc type) {
+        return DynamicCallSiteDesc.of(BOOTSTRAP, name, type);
+    }
+
+    /**
+     * The bootstrap method of every call to a script function.
+     * @param name The method name of the function.
+     * @param type The type of the function.
+     */
+    public static synchronized CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type) {
+        return CALL_SITES.computeIfAbsent(name + type.toMethodDescriptorString(), _ -> {
+            var callSite = new MutableCallSite(type);
+            callSite.setTarget(ScriptLinker.target(name, type));
+            return new LinkedFunction(name, callSite);
+        }).callSite();
+    }
+
+    /**
+     * Points the call sites of every function at its current method. Call sites of functions that no longer exist,
+     * or no longer have the type they were called with, fail when called.
+     * @param functions The method of every script function, keyed by method name.
+     */
+    public static synchronized void link(Map<String, MethodHandle> functions) {
+        FUNCTIONS = Map.copyOf(functions);
+        var callSites = new MutableCallSite[CALL_SITES.size()];
+        int i = 0;
+        for(var linked : CALL_SITES.values()) {
+            linked.callSite().setTarget(ScriptLinker.target(linked.name(), linked.callSite().type()));
+            callSites[i++] = linked.callSite();
+        }
+        MutableCallSite.syncAll(callSites);
+    }
+
+    private static MethodHandle target(String name, MethodType type) {
+        var function = FUNCTIONS.get(name);
+        if(function != null && function.type().equals(type)) {
+            return function;
+        }
+        return ScriptLinker.unlinkedTarget(name, type);
+    }
+
+    private static MethodHandle unlinkedTarget(String name, MethodType type) {
+        return MethodHandles.insertArguments(UNLINKED, 0, name)
+                .asCollector(Object[].class, type.parameterCount())
+                .asType(type);
+    }
+
+    private static Object unlinked(String name, Object[] arguments) {
+        throw new RuntimeException("Function `" + name + "` is not loaded, or no longer takes these parameters.");
+    }
+}
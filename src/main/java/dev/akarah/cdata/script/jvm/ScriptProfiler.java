@@ -0,0 +1,176 @@
+package dev.akarah.cdata.script.jvm;
+
+import com.google.common.collect.Maps;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An opt-in profiler for compiled scripts. Event dispatchers and script invocations call {@link ScriptProfiler#enter()}
+ * and {@link ScriptProfiler#exit(Sample, String)} around every handler; while disabled, that is a single volatile read.
+ */
+public class ScriptProfiler {
+    public static Path DUMP_PATH = Path.of("./profile.json");
+    static int BUCKETS = 64;
+
+    private static volatile boolean ENABLED = false;
+    private static final Map<String, Entry> ENTRIES = Maps.newConcurrentMap();
+    private static final com.sun.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean()
+            instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported() ? bean : null;
+
+    /**
+     * The state captured when entering a profiled section.
+     */
+    public record Sample(long startNanos, long startBytes) {
+
+    }
+
+    /**
+     * Aggregated timings of a single function or event. Durations are bucketed by their highest set bit,
+     * so each bucket covers twice the range of the one before it.
+     */
+    public static class Entry {
+        final LongAdder invocations = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder allocatedBytes = new LongAdder();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos, long bytes) {
+            this.invocations.increment();
+            this.totalNanos.add(nanos);
+            this.maxNanos.accumulate(nanos);
+            this.allocatedBytes.add(bytes);
+            this.histogram.incrementAndGet(BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+        }
+
+        /**
+         * Estimates a percentile of the recorded durations.
+         * @param percentile The percentile, between 0 and 1.
+         * @return The upper bound of the bucket the percentile falls into, in nanoseconds.
+         */
+        public long percentile(double percentile) {
+            var target = (long) Math.ceil(this.invocations.sum() * percentile);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                seen += this.histogram.get(i);
+                if(seen >= target && seen > 0) {
+                    return i >= BUCKETS - 2 ? Long.MAX_VALUE : (2L << i) - 1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    public static boolean enabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Clears all previously collected data and starts profiling.
+     */
+    public static void start() {
+        ENTRIES.clear();
+        ENABLED = true;
+    }
+
+    public static void stop() {
+        ENABLED = false;
+    }
+
+    /**
+     * Called before a profiled section.
+     * @return The sample to pass to {@link ScriptProfiler#exit(Sample, String)}, or null if profiling is disabled.
+     */
+    public static Sample enter() {
+        if(!ENABLED) {
+            return null;
+        }
+        return new Sample(System.nanoTime(), ScriptProfiler.allocatedBytes());
+    }
+
+    /**
+     * Called after a profiled section.
+     * @param sample The sample returned by {@link ScriptProfiler#enter()}.
+     * @param name The name the section is recorded under.
+     */
+    public static void exit(Sample sample, String name) {
+        if(sample == null) {
+            return;
+        }
+        var nanos = System.nanoTime() - sample.startNanos();
+        var bytes = ScriptProfiler.allocatedBytes() - sample.startBytes();
+        ENTRIES.computeIfAbsent(name, _ -> new Entry()).record(nanos, Math.max(bytes, 0));
+    }
+
+    private static long allocatedBytes() {
+        if(THREADS == null) {
+            return 0;
+        }
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Lists the profiled sections by total time spent in them, highest first.
+     */
+    public static List<Map.Entry<String, Entry>> sortedEntries() {
+        return ENTRIES.entrySet()
+                .stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, Entry> e) -> e.getValue().totalNanos.sum()).reversed())
+                .toList();
+    }
+
+    /**
+     * Formats a single line of the in-game report.
+     */
+    public static String describe(String name, Entry entry) {
+        var invocations = entry.invocations.sum();
+        return name
+                + ": " + invocations + " calls"
+                + ", total " + String.format("%.3f", entry.totalNanos.sum() / 1_000_000.0) + "ms"
+                + ", p50 " + String.format("%.1f", entry.percentile(0.5) / 1000.0) + "us"
+                + ", p99 " + String.format("%.1f", entry.percentile(0.99) / 1000.0) + "us"
+                + ", max " + String.format("%.1f", entry.maxNanos.get() / 1000.0) + "us"
+                + ", " + (invocations == 0 ? 0 : entry.allocatedBytes.sum() / invocations) + "B/call";
+    }
+
+    /**
+     * Writes every collected entry, including its raw histogram, to {@link ScriptProfiler#DUMP_PATH} as JSON.
+     */
+    public static void dumpJson() throws IOException {
+        var root = new JsonObject();
+        root.addProperty("bucket_scheme", "log2_nanos");
+        var entries = new JsonArray();
+        for(var entry : ScriptProfiler.sortedEntries()) {
+            var value = entry.getValue();
+            var json = new JsonObject();
+            json.addProperty("name", entry.getKey());
+            json.addProperty("invocations", value.invocations.sum());
+            json.addProperty("total_nanos", value.totalNanos.sum());
+            json.addProperty("max_nanos", value.maxNanos.get());
+            json.addProperty("allocated_bytes", value.allocatedBytes.sum());
+            json.addProperty("p50_nanos", value.percentile(0.5));
+            json.addProperty("p90_nanos", value.percentile(0.9));
+            json.addProperty("p99_nanos", value.percentile(0.99));
+            var histogram = new JsonArray();
+            for(int i = 0; i < BUCKETS; i++) {
+                histogram.add(value.histogram.get(i));
+            }
+            json.add("histogram", histogram);
+            entries.add(json);
+        }
+        root.add("entries", entries);
+        Files.writeString(DUMP_PATH, new GsonBuilder().setPrettyPrinting().create().toJson(root));
+    }
+}
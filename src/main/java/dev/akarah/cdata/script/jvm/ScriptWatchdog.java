@@ -0,0 +1,76 @@
+package dev.akarah.cdata.script.jvm;
+
+import dev.akarah.cdata.registry.Resources;
+import dev.akarah.cdata.script.exception.ScriptTimeoutException;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds how long a script invocation may run. {@link dev.akarah.cdata.script.dsl.DslActionManager} arms the watchdog
+ * around each event or function it runs, and every compiled loop calls {@link ScriptWatchdog#checkpoint(String)} at its
+ * head. Once the budget is exceeded, the next checkpoint aborts the script with a {@link ScriptTimeoutException}.
+ * <p>
+ * Every thread has its own budget, so scripts running in `async` blocks are bounded independently of the server
+ * thread. The budget is off unless `script_budget_ms` is set in the engine config.
+ */
+public class ScriptWatchdog {
+    static int CHECK_INTERVAL_MASK = 1023;
+
+    private static final class Budget {
+        boolean armed;
+        long deadline;
+        int checkpoints;
+    }
+
+    private static final ThreadLocal<Budget> BUDGET = ThreadLocal.withInitial(Budget::new);
+    private static final LongAdder TIMEOUTS = new LongAdder();
+
+    /**
+     * Starts the budget for the current thread, unless a surrounding invocation on this thread already did.
+     * @return True if this call armed the watchdog and must call {@link ScriptWatchdog#disarm()} afterward.
+     */
+    public static boolean arm() {
+        var budget = Resources.config() == null ? 0 : Resources.config().scriptBudgetMs();
+        if(budget <= 0) {
+            return false;
+        }
+        var state = BUDGET.get();
+        if(state.armed) {
+            return false;
+        }
+        state.deadline = System.nanoTime() + budget * 1_000_000L;
+        state.armed = true;
+        return true;
+    }
+
+    /**
+     * Ends the budget of the current thread.
+     */
+    public static void disarm() {
+        BUDGET.get().armed = false;
+    }
+
+    /**
+     * Called by compiled code at the head of every loop. Only every 1024th call on a thread reads the clock.
+     * @param location A description of the loop, used in the timeout message.
+     */
+    public static void checkpoint(String location) {
+        var state = BUDGET.get();
+        if((++state.checkpoints & CHECK_INTERVAL_MASK) != 0 || !state.armed) {
+            return;
+        }
+        if(System.nanoTime() - state.deadline > 0) {
+            TIMEOUTS.increment();
+            throw new ScriptTimeoutException(
+                    "Script exceeded its budget of " + Resources.config().scriptBudgetMs() + "ms, aborted in loop:\n" + location
+            );
+        }
+    }
+
+    /**
+     * The amount of scripts aborted since the server started.
+     */
+    public static long timeouts() {
+        return TIMEOUTS.sum();
+    }
+}
@@ -31,4 +31,16 @@ public record DictionaryType(
     public List<Type<?>> subtypes() {
         return List.of(keyType, valueType);
     }
+
+    /**
+     * The static method on {@link RDict} that creates an empty dictionary specialized for this key type.
+     */
+    public String factoryMethod() {
+        return switch (this.keyType.flatten()) {
+            case StringType _ -> "createStringKeyed";
+            case NumberType _ -> "createNumberKeyed";
+            case UuidType _ -> "createUuidKeyed";
+            default -> "create";
+        };
+    }
 }
@@ -3,8 +3,10 @@ package dev.akarah.cdata.script.value;
 import dev.akarah.cdata.Main;
 import dev.akarah.cdata.Scheduler;
 import dev.akarah.cdata.db.Database;
+import dev.akarah.cdata.db.persistence.DbPersistence;
 import dev.akarah.cdata.registry.Resources;
 import dev.akarah.cdata.registry.item.CustomItem;
+import dev.akarah.cdata.script.exception.ScriptTimeoutException;
 import dev.akarah.cdata.script.expr.ast.func.MethodTypeHint;
 import dev.akarah.cdata.script.expr.ast.operation.OperationUtil;
 import dev.akarah.cdata.script.value.mc.*;
@@ -14,21 +16,18 @@ import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.phys.Vec3;
 
+import java.util.stream.DoubleStream;
+
 public class GlobalNamespace {
     @MethodTypeHint(signature = "(min: number, max: number) -> list[number]", documentation = "Returns a list of numbers from the minimum to the maximum, inclusive.")
     public static RList range(RNumber min, RNumber max) {
-        var list = RList.create();
-
         var newMin = min.javaValue();
         var newMax = max.javaValue();
         var minIsLower = newMin < newMax;
 
-        double idx = minIsLower ? newMin : newMax;
-        while(idx <= (minIsLower ? newMax : newMin)) {
-            RList.add(list, RNumber.of(idx));
-            idx += 1;
-        }
-        return list;
+        var start = minIsLower ? newMin : newMax;
+        var end = minIsLower ? newMax : newMin;
+        return RList.lazy(() -> DoubleStream.iterate(start, idx -> idx <= end, idx -> idx + 1).mapToObj(RNumber::of));
     }
 
     @MethodTypeHint(signature = "(x: number, y: number, z: number) -> vector", documentation = "Creates a new vector from X, Y, and Z components.")
@@ -67,6 +66,8 @@ public class GlobalNamespace {
         if(function != null) {
             try {
                 function.javaValue().invoke(item, entity);
+            } catch (ScriptTimeoutException e) {
+                throw e;
             } catch (Throwable _) {
                 
             }
@@ -119,6 +120,15 @@ public class GlobalNamespace {
         return RStore.of(Database.save().get(key.javaValue()));
     }
 
+    @MethodTypeHint(
+            signature = "(store: string, key: string) -> nullable[any]",
+            documentation = "Gets a value from the persistent data store with the associated name, without loading the whole store. "
+                    + "If the store isn't loaded, changes made to the value are not saved."
+    )
+    public static RNullable store__peek(RString store, RString key) {
+        return RNullable.of(DbPersistence.peek(store.javaValue(), key.javaValue(), Main.server().registryAccess()));
+    }
+
     @MethodTypeHint(signature = "<T>(this: T) -> nullable[T]", documentation = "Returns a nullable instance with the given type.")
     public static RNullable nullable__of(RuntimeValue any) {
         return RNullable.of(any);
@@ -143,7 +153,7 @@ public class GlobalNamespace {
     public static RList server__players() {
         var list = RList.create();
         for(var player : Main.server().getPlayerList().getPlayers()) {
-            list.javaValue().add(REntity.of(player));
+            RList.add(list, REntity.of(player));
         }
         return list;
     }
@@ -0,0 +1,30 @@
+package dev.akarah.cdata.script.value;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value scripts can change in place. Every change stamps the value from a clock shared by all mutable values, so
+ * whoever holds one can tell whether it changed since they last looked, without comparing its contents.
+ */
+public interface MutableValue {
+    AtomicLong CLOCK = new AtomicLong();
+
+    /**
+     * Draws the next stamp. Stamps only grow, so a change made after a stamp was drawn has a larger one.
+     */
+    static long nextStamp() {
+        return CLOCK.incrementAndGet();
+    }
+
+    /**
+     * The latest stamp drawn so far.
+     */
+    static long currentStamp() {
+        return CLOCK.get();
+    }
+
+    /**
+     * @return The stamp of the last change made to this value itself, not counting values inside it.
+     */
+    long lastMutation();
+}
@@ -1,6 +1,12 @@
 package dev.akarah.cdata.script.value;
 
-public class  RBoolean extends RuntimeValue {
+/**
+ * A script boolean. There are only ever two instances, so comparing two booleans by identity is safe.
+ */
+public class RBoolean extends RuntimeValue {
+    public static final RBoolean TRUE = new RBoolean(true);
+    public static final RBoolean FALSE = new RBoolean(false);
+
     private final boolean inner;
 
     private RBoolean(boolean inner) {
@@ -8,7 +14,7 @@ public class  RBoolean extends RuntimeValue {
     }
 
     public static RBoolean of(boolean value) {
-        return new RBoolean(value);
+        return value ? TRUE : FALSE;
     }
 
     @Override
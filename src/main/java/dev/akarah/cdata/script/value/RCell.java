@@ -5,8 +5,9 @@ import dev.akarah.cdata.script.expr.ast.func.MethodTypeHint;
 
 import java.util.List;
 
-public class RCell extends RuntimeValue {
+public class RCell extends RuntimeValue implements MutableValue {
     private RuntimeValue inner;
+    private long lastMutation;
 
     public RCell(RuntimeValue inner) {
         this.inner = inner;
@@ -25,12 +26,18 @@ public class RCell extends RuntimeValue {
     @MethodTypeHint(signature = "<T>(this: cell[T], value: T) -> void", documentation = "Sets the value inside of the cell.")
     public static void set(RCell $this, RuntimeValue value) {
         $this.inner = value;
+        $this.lastMutation = MutableValue.nextStamp();
     }
 
     public RuntimeValue inner() {
         return this.inner;
     }
 
+    @Override
+    public long lastMutation() {
+        return this.lastMutation;
+    }
+
     @Override
     public Object javaValue() {
         return this.inner.javaValue();
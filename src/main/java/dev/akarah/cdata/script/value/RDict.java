@@ -1,12 +1,69 @@
 package dev.akarah.cdata.script.value;
 
-import com.google.common.collect.Maps;
 import dev.akarah.cdata.script.expr.ast.func.MethodTypeHint;
+import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenCustomHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 
 import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A mutable dictionary. When the key type is statically known, compiled code creates the dictionary through one of the
+ * keyed factories (see {@link dev.akarah.cdata.script.type.DictionaryType#factoryMethod()}), whose hash strategy
+ * compares keys of that type directly. Keys of any other type still work, through {@link RuntimeValue#equals(Object)}.
+ */
+public class RDict extends RuntimeValue implements MutableValue {
+    static final Hash.Strategy<RuntimeValue> STRING_KEYS = new Hash.Strategy<>() {
+        @Override
+        public int hashCode(RuntimeValue key) {
+            return key instanceof RString string ? string.javaValue().hashCode() : Objects.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(RuntimeValue a, RuntimeValue b) {
+            if(a instanceof RString lhs && b instanceof RString rhs) {
+                return lhs.javaValue().equals(rhs.javaValue());
+            }
+            return Objects.equals(a, b);
+        }
+    };
+
+    static final Hash.Strategy<RuntimeValue> NUMBER_KEYS = new Hash.Strategy<>() {
+        @Override
+        public int hashCode(RuntimeValue key) {
+            return key instanceof RNumber number ? Double.hashCode(number.doubleValue()) : Objects.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(RuntimeValue a, RuntimeValue b) {
+            if(a instanceof RNumber lhs && b instanceof RNumber rhs) {
+                return Double.doubleToLongBits(lhs.doubleValue()) == Double.doubleToLongBits(rhs.doubleValue());
+            }
+            return Objects.equals(a, b);
+        }
+    };
+
+    static final Hash.Strategy<RuntimeValue> UUID_KEYS = new Hash.Strategy<>() {
+        @Override
+        public int hashCode(RuntimeValue key) {
+            return key instanceof RUuid uuid ? uuid.javaValue().hashCode() : Objects.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(RuntimeValue a, RuntimeValue b) {
+            if(a == b) {
+                return true;
+            }
+            if(a instanceof RUuid lhs && b instanceof RUuid rhs) {
+                return lhs.javaValue().equals(rhs.javaValue());
+            }
+            return Objects.equals(a, b);
+        }
+    };
 
-public class RDict extends RuntimeValue {
     private final Map<RuntimeValue, RuntimeValue> inner;
+    private long lastMutation;
 
     public RDict(Map<RuntimeValue, RuntimeValue> inner) {
         this.inner = inner;
@@ -14,7 +71,19 @@ public class RDict extends RuntimeValue {
 
     @MethodTypeHint(signature = "<K, V>() -> dict[K, V]", documentation = "Creates a new empty dictionary.")
     public static RDict create() {
-        return new RDict(Maps.newHashMap());
+        return new RDict(new Object2ObjectOpenHashMap<>());
+    }
+
+    public static RDict createStringKeyed() {
+        return new RDict(new Object2ObjectOpenCustomHashMap<>(STRING_KEYS));
+    }
+
+    public static RDict createNumberKeyed() {
+        return new RDict(new Object2ObjectOpenCustomHashMap<>(NUMBER_KEYS));
+    }
+
+    public static RDict createUuidKeyed() {
+        return new RDict(new Object2ObjectOpenCustomHashMap<>(UUID_KEYS));
     }
 
     @MethodTypeHint(signature = "<K, V>(dictionary: dict[K, V], key: K) -> nullable[V]", documentation = "Gets a value from the dictionary.")
@@ -30,6 +99,12 @@ public class RDict extends RuntimeValue {
     @MethodTypeHint(signature = "<K, V>(dictionary: dict[K, V], key: K, value: V) -> V", documentation = "Inserts a value into the dictionary.")
     public static void put(RDict dict, RuntimeValue key, RuntimeValue value) {
         dict.inner.put(key, value);
+        dict.lastMutation = MutableValue.nextStamp();
+    }
+
+    @Override
+    public long lastMutation() {
+        return this.lastMutation;
     }
 
     @Override
@@ -1,17 +1,46 @@
 package dev.akarah.cdata.script.value;
 
 import com.google.common.collect.Lists;
+import dev.akarah.cdata.script.exception.ScriptTimeoutException;
 import dev.akarah.cdata.script.expr.ast.func.MethodTypeHint;
 
+import java.util.ArrayList;
 import java.util.List;
-
-public class RList extends RuntimeValue {
-    private final List<RuntimeValue> inner;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A script list. Compiled `for` loops iterate the backing list in place instead of copying it; if the list is written
+ * to while a loop is iterating it, the write goes to a fresh copy so the loop keeps seeing the elements it started with.
+ * <p>
+ * `map`, `filter`, `dedup` and `take` run when called, calling user functions exactly once per element, and each
+ * returns a new list; chained calls are not fused. Lists returned by `range` are lazy, so these functions and `any`
+ * and `count` stream over a range without building it first.
+ */
+public class RList extends RuntimeValue implements MutableValue {
+    private List<RuntimeValue> inner;
+    private Supplier<Stream<RuntimeValue>> pending;
+    private int iterations;
+    private long lastMutation;
 
     public RList(List<RuntimeValue> inner) {
         this.inner = inner;
     }
 
+    private RList(Supplier<Stream<RuntimeValue>> pending) {
+        this.pending = pending;
+    }
+
+    /**
+     * Creates a list whose elements are produced by a stream the first time they are needed.
+     * @param pending Creates the stream of elements. It may be called more than once, so it must not have side effects.
+     */
+    public static RList lazy(Supplier<Stream<RuntimeValue>> pending) {
+        return new RList(pending);
+    }
+
     @MethodTypeHint(signature = "<T>() -> list[T]", documentation = "Creates a new empty list.")
     public static RList create() {
         return new RList(Lists.newArrayList());
@@ -20,7 +49,7 @@ public class RList extends RuntimeValue {
     @MethodTypeHint(signature = "<T>(this: list[T], index: number) -> nullable[T]", documentation = "Gets a value from the list.")
     public static RNullable get(RList $this, RNumber index) {
         try {
-            return RNullable.of($this.inner.get(index.javaValue().intValue()));
+            return RNullable.of($this.list().get(index.javaValue().intValue()));
         } catch (Exception e) {
             return RNullable.empty();
         }
@@ -28,74 +57,150 @@ public class RList extends RuntimeValue {
 
     @MethodTypeHint(signature = "<T>(this: list[T], value: T) -> void", documentation = "Adds a new value to the list.")
     public static void add(RList $this, RuntimeValue object) {
+        $this.prepareWrite();
         $this.inner.add(object);
     }
 
     @MethodTypeHint(signature = "<T>(this: list[T], values: list[T]) -> void", documentation = "Adds all contents from the second list, into the first.")
     public static void add_all(RList $this, RList list) {
-        $this.inner.addAll(list.inner);
+        var values = list.list();
+        $this.prepareWrite();
+        $this.inner.addAll(values);
     }
 
     @MethodTypeHint(signature = "<T>(this: list[T], value: T) -> boolean", documentation = "Returns true if the list contains the provided value.")
     public static RBoolean contains(RList $this, RuntimeValue value) {
-        return RBoolean.of($this.inner.contains(value));
+        return RBoolean.of($this.list().contains(value));
     }
 
     @MethodTypeHint(signature = "<T, U>(this: list[T], mapper: function(T) -> U) -> list[U]", documentation = "Returns a new list with the result of the mapping function for each element of this list.")
     public static RList map(RList $this, RFunction function) {
-        var newList = RList.create();
-        for(var entry : $this.javaValue()) {
+        return new RList($this.read(stream -> stream.<RuntimeValue>mapMulti((entry, sink) -> {
             try {
-                RList.add(newList, (RuntimeValue) function.javaValue().invoke(entry));
+                sink.accept((RuntimeValue) function.javaValue().invoke(entry));
+            } catch (ScriptTimeoutException e) {
+                throw e;
             } catch (Throwable _) {
 
             }
-        }
-        return newList;
+        }).collect(Collectors.toCollection(ArrayList::new))));
     }
 
     @MethodTypeHint(signature = "<T>(this: list[T], predicate: function(T) -> boolean) -> list[T]", documentation = "Returns a new list, without any elements of this list that don't match the predicate.")
     public static RList filter(RList $this, RFunction function) {
-        var newList = RList.create();
-        for(var entry : $this.javaValue()) {
-            try {
-                if(((RBoolean) function.javaValue().invoke(entry)).javaValue()) {
-                    RList.add(newList, entry);
-                }
-            } catch (Throwable _) {
-                
-            }
-        }
-        return newList;
+        return new RList($this.read(stream -> stream
+                .filter(entry -> RList.test(function, entry))
+                .collect(Collectors.toCollection(ArrayList::new))));
+    }
+
+    @MethodTypeHint(signature = "<T>(this: list[T], amount: number) -> list[T]", documentation = "Returns a new list with at most the first `amount` elements of this list.")
+    public static RList take(RList $this, RNumber amount) {
+        return new RList($this.read(stream -> stream
+                .limit(Math.max(0, amount.javaValue().longValue()))
+                .collect(Collectors.toCollection(ArrayList::new))));
+    }
+
+    @MethodTypeHint(signature = "<T>(this: list[T], predicate: function(T) -> boolean) -> boolean", documentation = "Returns true if any element of the list matches the predicate, stopping at the first match.")
+    public static RBoolean any(RList $this, RFunction function) {
+        return RBoolean.of($this.read(stream -> stream.anyMatch(entry -> RList.test(function, entry))));
+    }
+
+    @MethodTypeHint(signature = "<T>(this: list[T], predicate: function(T) -> boolean) -> number", documentation = "Returns the amount of elements of the list that match the predicate.")
+    public static RNumber count(RList $this, RFunction function) {
+        return RNumber.of($this.read(stream -> stream.filter(entry -> RList.test(function, entry)).count()));
     }
 
     @MethodTypeHint(signature = "<T>(this: list[T]) -> list[T]", documentation = "Creates a copy of the provided list.")
     public static RList copy(RList $this) {
-        var list = RList.create();
-        for(var element : $this.javaValue()) {
-            RList.add(list, element);
-        }
-        return list;
+        return new RList(Lists.newArrayList($this.list()));
     }
 
     @MethodTypeHint(signature = "<T>(this: list[T]) -> list[T]", documentation = "Creates a copy of the provided list with no duplicate entries.")
     public static RList dedup(RList $this) {
-        var list = RList.create();
-        for(var element : $this.javaValue()) {
-            if(!RList.contains(list, element).javaValue()) {
-                RList.add(list, element);
-            }
+        return new RList($this.read(stream -> stream.distinct().collect(Collectors.toCollection(ArrayList::new))));
+    }
+
+    @MethodTypeHint(signature = "<T>(this: list[T]) -> number", documentation = "Returns the amount of elements in the list.")
+    public static RNumber size(RList $this) {
+        return RNumber.of($this.list().size());
+    }
+
+    private static boolean test(RFunction function, RuntimeValue entry) {
+        try {
+            return ((RBoolean) function.javaValue().invoke(entry)).javaValue();
+        } catch (ScriptTimeoutException e) {
+            throw e;
+        } catch (Throwable _) {
+            return false;
         }
+    }
+
+    /**
+     * Used by compiled `for` loops before iterating.
+     * @return The current backing list, which stays unchanged until the matching {@link RList#endIterate(RList, List)}.
+     */
+    public static List<RuntimeValue> iterate(RList $this) {
+        var list = $this.list();
+        $this.iterations++;
         return list;
     }
 
-    @MethodTypeHint(signature = "<T>(this: list[T]) -> number", documentation = "Creates a copy of the provided list with no duplicate entries.")
-    public static RNumber size(RList $this) {
-        return RNumber.of($this.inner.size());
+    /**
+     * Used by compiled `for` loops after iterating, however the loop is left.
+     */
+    public static void endIterate(RList $this, List<RuntimeValue> snapshot) {
+        if($this.inner == snapshot && $this.iterations > 0) {
+            $this.iterations--;
+        }
+    }
+
+    /**
+     * Runs a pipeline over the elements of this list, without materializing it if it is lazy. The pipeline must
+     * consume the stream before returning. Callbacks that write to this list meanwhile write to a copy, like in a loop.
+     */
+    private <R> R read(Function<Stream<RuntimeValue>, R> pipeline) {
+        if(this.inner == null) {
+            return pipeline.apply(this.pending.get());
+        }
+        var snapshot = RList.iterate(this);
+        try {
+            return pipeline.apply(snapshot.stream());
+        } finally {
+            RList.endIterate(this, snapshot);
+        }
+    }
+
+    /**
+     * Returns the backing list for reading, running the pending pipeline first if this list is lazy.
+     */
+    private List<RuntimeValue> list() {
+        if(this.inner == null) {
+            this.inner = this.pending.get().collect(Collectors.toCollection(ArrayList::new));
+            this.pending = null;
+        }
+        return this.inner;
+    }
+
+    private void prepareWrite() {
+        this.list();
+        if(this.iterations > 0) {
+            this.inner = Lists.newArrayList(this.inner);
+            this.iterations = 0;
+        }
+        this.lastMutation = MutableValue.nextStamp();
     }
 
+    @Override
+    public long lastMutation() {
+        return this.lastMutation;
+    }
+
+    /**
+     * Returns the backing list without copying it. Callers must not modify it, since loops may be iterating it;
+     * writes go through {@link RList#add(RList, RuntimeValue)} and {@link RList#add_all(RList, RList)}.
+     */
     @Override
     public List<RuntimeValue> javaValue() {
-        return this.inner;
+        return this.list();
     }
 }
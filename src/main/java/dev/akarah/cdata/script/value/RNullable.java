@@ -1,10 +1,13 @@
 package dev.akarah.cdata.script.value;
 
+import dev.akarah.cdata.script.exception.ScriptTimeoutException;
 import dev.akarah.cdata.script.expr.ast.func.MethodTypeHint;
 
 import java.util.Optional;
 
 public class RNullable extends RuntimeValue {
+    private static final RNullable EMPTY = new RNullable(null);
+
     private final RuntimeValue inner;
 
     private RNullable(RuntimeValue inner) {
@@ -13,11 +16,14 @@ public class RNullable extends RuntimeValue {
 
     @MethodTypeHint(signature = "<T>() -> nullable[T]", documentation = "Creates an empty nullable instance.")
     public static RNullable empty() {
-        return new RNullable(null);
+        return EMPTY;
     }
 
     @MethodTypeHint(signature = "<T>(value: T) -> nullable[T]", documentation = "Creates a nullable instance with a value inside.")
     public static RNullable of(RuntimeValue value) {
+        if(value == null) {
+            return EMPTY;
+        }
         return new RNullable(value);
     }
 
@@ -44,6 +50,8 @@ public class RNullable extends RuntimeValue {
         if($this.inner != null) {
             try {
                 function.javaValue().invoke($this.inner);
+            } catch (ScriptTimeoutException e) {
+                throw e;
             } catch (Throwable _) {
 
             }
@@ -59,6 +67,8 @@ public class RNullable extends RuntimeValue {
         if($this.inner != null) {
             try {
                 return RNullable.of((RuntimeValue) function.javaValue().invoke($this.inner));
+            } catch (ScriptTimeoutException e) {
+                throw e;
             } catch (Throwable _) {
 
             }
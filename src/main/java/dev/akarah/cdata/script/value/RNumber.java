@@ -3,13 +3,31 @@ package dev.akarah.cdata.script.value;
 import dev.akarah.cdata.script.expr.ast.func.MethodTypeHint;
 
 public class RNumber extends RuntimeValue {
+    static final int CACHE_LOW = -128;
+    static final int CACHE_HIGH = 1024;
+    private static final RNumber[] CACHE = new RNumber[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for(int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new RNumber(i + CACHE_LOW);
+        }
+    }
+
     private final double inner;
 
     private RNumber(double inner) {
         this.inner = inner;
     }
 
+    /**
+     * Integral values between {@link RNumber#CACHE_LOW} and {@link RNumber#CACHE_HIGH} share a cached instance,
+     * like {@link Integer#valueOf(int)}. `-0.0` is never cached, so it keeps its sign.
+     */
     public static RNumber of(double value) {
+        var index = (int) value;
+        if(index >= CACHE_LOW && index <= CACHE_HIGH && Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(index)) {
+            return CACHE[index - CACHE_LOW];
+        }
         return new RNumber(value);
     }
 
@@ -95,6 +113,22 @@ public class RNumber extends RuntimeValue {
         return RNumber.of(lhs.doubleValue() % rhs.doubleValue());
     }
 
+    @Override
+    public int hashCode() {
+        return Double.hashCode(this.inner);
+    }
+
+    /**
+     * Compares like {@link Double#equals(Object)}, without boxing either side.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if(other instanceof RNumber number) {
+            return Double.doubleToLongBits(this.inner) == Double.doubleToLongBits(number.inner);
+        }
+        return super.equals(other);
+    }
+
     @Override
     public String toString() {
         var strOut = Double.toString(this.inner);
@@ -18,6 +18,19 @@ public class RString extends RuntimeValue {
         return this.inner;
     }
 
+    @Override
+    public int hashCode() {
+        return this.inner.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(other instanceof RString string) {
+            return this.inner.equals(string.inner);
+        }
+        return super.equals(other);
+    }
+
     @MethodTypeHint(signature = "(this: string, target: string, sequence: string) -> string", documentation = "Replaces a substring with another.")
     public static RString replace(RString $this, RString target, RString sequence) {
         return RString.of($this.javaValue().replace(target.javaValue(), sequence.javaValue()));
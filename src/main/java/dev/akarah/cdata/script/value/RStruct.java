@@ -3,48 +3,240 @@ package dev.akarah.cdata.script.value;
 import com.google.common.collect.Maps;
 import dev.akarah.cdata.script.expr.ast.func.MethodTypeHint;
 import dev.akarah.cdata.script.jvm.CodegenContext;
+import dev.akarah.cdata.script.type.StructType;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * A user-defined struct. Fields declared by the struct's type live in a fixed-layout array,
+ * so compiled field accesses are an index into it instead of a hash lookup.
+ */
+public class RStruct extends RuntimeValue implements MutableValue {
+    private static final Map<String, Layout> LAYOUTS = Maps.newConcurrentMap();
+    private static final Layout EMPTY_LAYOUT = new Layout(new String[0]);
 
-public class RStruct extends RuntimeValue {
     private final String name;
-    private final Map<String, RuntimeValue> inner;
+    private final Layout layout;
+    private final RuntimeValue[] values;
+    private Map<String, RuntimeValue> extraFields;
+    private long lastMutation;
+
+    /**
+     * The field order of a struct type. Field names are interned so compiled code can check them by identity.
+     */
+    public static class Layout {
+        final String[] fields;
+        final Object2IntOpenHashMap<String> indices = new Object2IntOpenHashMap<>();
+
+        Layout(String[] fields) {
+            this.fields = fields;
+            this.indices.defaultReturnValue(-1);
+            for(int i = 0; i < fields.length; i++) {
+                this.fields[i] = this.fields[i].intern();
+                this.indices.put(this.fields[i], i);
+            }
+        }
+
+        int indexOf(String field, int expectedIndex) {
+            if(expectedIndex >= 0 && expectedIndex < this.fields.length && this.fields[expectedIndex] == field) {
+                return expectedIndex;
+            }
+            return this.indices.getInt(field);
+        }
+    }
 
-    private RStruct(String name, Map<String, RuntimeValue> inner) {
+    private RStruct(String name, Layout layout) {
         this.name = name;
-        this.inner = inner;
+        this.layout = layout;
+        this.values = new RuntimeValue[layout.fields.length];
+    }
+
+    /**
+     * Registers the field layouts of every user struct type. Structs created afterward use the new layouts,
+     * while existing structs keep the layout they were created with.
+     * @param types The struct types to register, keyed like {@link CodegenContext#userTypes}.
+     */
+    public static void registerLayouts(Map<String, StructType> types) {
+        for(var type : types.entrySet()) {
+            RStruct.LAYOUTS.put(
+                    type.getKey(),
+                    new Layout(type.getValue().fields().stream().map(StructType.Field::name).toArray(String[]::new))
+            );
+        }
     }
 
-    public static RStruct create(String name, int size) {
-        return new RStruct(name, Maps.newHashMap());
+    public static RStruct create(String name) {
+        return RStruct.createWithLayout(name, name.replace(".", "_"));
+    }
+
+    /**
+     * Used by compiled struct literals, which already know the key of their type.
+     * @param name The name of the struct.
+     * @param layoutKey The key the struct's type is registered under.
+     */
+    public static RStruct createWithLayout(String name, String layoutKey) {
+        var layout = RStruct.LAYOUTS.get(layoutKey);
+        if(layout == null) {
+            layout = EMPTY_LAYOUT;
+        }
+        return new RStruct(name, layout);
     }
 
     public static RuntimeValue get(RStruct dict, String key, RuntimeValue fallback) {
-        var result = dict.inner.get(key);
+        return RStruct.getField(dict, -1, key, fallback);
+    }
+
+    /**
+     * Used by compiled field accesses.
+     * @param index The index of the field in the struct type known at compile time.
+     * @param key The interned name of the field, used if the struct's layout doesn't match.
+     */
+    public static RuntimeValue getField(RStruct dict, int index, String key, RuntimeValue fallback) {
+        var idx = dict.layout.indexOf(key, index);
+        var result = idx == -1 ? dict.extraField(key) : dict.values[idx];
         if(result == null) {
-            dict.inner.put(key, fallback);
+            RStruct.putField(dict, idx, key, fallback);
             return fallback;
         }
         return result;
     }
 
     public static void put(RStruct dict, String key, RuntimeValue value) {
-        dict.inner.put(key, value);
+        RStruct.putField(dict, -1, key, value);
+    }
+
+    /**
+     * Used by compiled field assignments.
+     * @param index The index of the field in the struct type known at compile time.
+     * @param key The interned name of the field, used if the struct's layout doesn't match.
+     */
+    public static void putField(RStruct dict, int index, String key, RuntimeValue value) {
+        var idx = dict.layout.indexOf(key, index);
+        dict.lastMutation = MutableValue.nextStamp();
+        if(idx != -1) {
+            dict.values[idx] = value;
+            return;
+        }
+        if(dict.extraFields == null) {
+            dict.extraFields = new HashMap<>();
+        }
+        dict.extraFields.put(key, value);
+    }
+
+    private RuntimeValue extraField(String key) {
+        if(this.extraFields == null) {
+            return null;
+        }
+        return this.extraFields.get(key);
+    }
+
+    /**
+     * @return The amount of fields that were set.
+     */
+    public int size() {
+        var size = this.extraFields == null ? 0 : this.extraFields.size();
+        for(var value : this.values) {
+            if(value != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Visits the struct's fields without copying them, in layout order followed by fields outside the layout, skipping
+     * fields that were never set.
+     */
+    public void forEachField(BiConsumer<String, RuntimeValue> action) {
+        for(int i = 0; i < this.values.length; i++) {
+            if(this.values[i] != null) {
+                action.accept(this.layout.fields[i], this.values[i]);
+            }
+        }
+        if(this.extraFields != null) {
+            this.extraFields.forEach(action);
+        }
     }
 
+    /**
+     * Returns a snapshot of the struct's fields in layout order, skipping fields that were never set.
+     */
     @Override
     public Map<String, RuntimeValue> javaValue() {
-        return this.inner;
+        var map = new LinkedHashMap<String, RuntimeValue>();
+        for(int i = 0; i < this.values.length; i++) {
+            if(this.values[i] != null) {
+                map.put(this.layout.fields[i], this.values[i]);
+            }
+        }
+        if(this.extraFields != null) {
+            map.putAll(this.extraFields);
+        }
+        return map;
     }
 
     public String name() {
         return this.name;
     }
 
+    @Override
+    public long lastMutation() {
+        return this.lastMutation;
+    }
+
+    /**
+     * Structs are equal if they set the same fields to equal values, like their {@link RStruct#javaValue()} maps.
+     * Structs sharing a layout are compared without building those maps.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if(this == other) {
+            return true;
+        }
+        if(!(other instanceof RStruct struct)) {
+            return false;
+        }
+        if(this.layout != struct.layout) {
+            return this.javaValue().equals(struct.javaValue());
+        }
+        return Arrays.equals(this.values, struct.values)
+                && Objects.equals(this.extraFieldsOrEmpty(), struct.extraFieldsOrEmpty());
+    }
+
+    /**
+     * Matches the hash code of the {@link RStruct#javaValue()} map, so it stays consistent with equality between
+     * structs of different layouts.
+     */
+    @Override
+    public int hashCode() {
+        var hash = this.extraFieldsOrEmpty().hashCode();
+        for(int i = 0; i < this.values.length; i++) {
+            if(this.values[i] != null) {
+                hash += this.layout.fields[i].hashCode() ^ this.values[i].hashCode();
+            }
+        }
+        return hash;
+    }
+
     @Override
     public String toString() {
-        return this.inner.toString();
+        var builder = new StringBuilder("{");
+        this.forEachField((field, value) -> {
+            if(builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(field).append('=').append(value);
+        });
+        return builder.append('}').toString();
+    }
+
+    private Map<String, RuntimeValue> extraFieldsOrEmpty() {
+        return this.extraFields == null ? Map.of() : this.extraFields;
     }
 }
@@ -17,4 +17,17 @@ public class RUuid extends RuntimeValue {
     public UUID javaValue() {
         return this.inner;
     }
+
+    @Override
+    public int hashCode() {
+        return this.inner.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(other instanceof RUuid uuid) {
+            return this.inner.equals(uuid.inner);
+        }
+        return super.equals(other);
+    }
 }
@@ -141,9 +141,9 @@ public class RInventory extends RuntimeValue {
         var list = RList.create();
         for(var item : $this.inner) {
             if(item == null) {
-                list.javaValue().add(RItem.of(ItemStack.EMPTY));
+                RList.add(list, RItem.of(ItemStack.EMPTY));
             }
-            list.javaValue().add(RItem.of(item));
+            RList.add(list, RItem.of(item));
         }
         return list;
     }
@@ -16,8 +16,9 @@ import net.minecraft.world.item.component.ItemLore;
 import java.util.Objects;
 import java.util.Optional;
 
-public class RItem extends RuntimeValue {
+public class RItem extends RuntimeValue implements MutableValue {
     private final ItemStack inner;
+    private long lastMutation;
 
     private RItem(ItemStack inner) {
         this.inner = inner;
@@ -32,6 +33,19 @@ public class RItem extends RuntimeValue {
         return this.inner;
     }
 
+    @Override
+    public long lastMutation() {
+        return this.lastMutation;
+    }
+
+    /**
+     * Consistent with {@link RuntimeValue#equals(Object)}, which compares items by ID and amount.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(RItem.id(this), this.inner.getCount());
+    }
+
     @MethodTypeHint(signature = "(item: item) -> identifier", documentation = "Gets the ID of the item stack.")
     public static RIdentifier id(RItem item) {
         return RIdentifier.of(
@@ -44,6 +58,7 @@ public class RItem extends RuntimeValue {
     public static void set_name(RItem item, RText name) {
         item.javaValue().set(DataComponents.ITEM_NAME, name.javaValue());
         item.javaValue().set(DataComponents.CUSTOM_NAME, name.javaValue());;
+        item.lastMutation = MutableValue.nextStamp();
     }
 
     @MethodTypeHint(signature = "(item: item) -> string", documentation = "Gets the name of the base item.")
@@ -78,6 +93,7 @@ public class RItem extends RuntimeValue {
                         RuntimeValue.CODEC.encodeStart(NbtOps.INSTANCE, keyValue).result().orElse(DoubleTag.valueOf(0.0))
                 ))
         );
+        $this.lastMutation = MutableValue.nextStamp();
     }
 
     @MethodTypeHint(signature = "(item: item) -> list[text]", documentation = "Gets the current lore of the item stack.")
@@ -103,11 +119,13 @@ public class RItem extends RuntimeValue {
                                 .toList()
                 )
         );
+        $this.lastMutation = MutableValue.nextStamp();
     }
 
     @MethodTypeHint(signature = "(item: item, amount: number) -> void", documentation = "Sets the amount of items in the item stack.")
     public static void set_amount(RItem $this, RNumber amount) {
         $this.javaValue().setCount(amount.intValue());
+        $this.lastMutation = MutableValue.nextStamp();
     }
 
     @MethodTypeHint(signature = "(item: item) -> number", documentation = "Returns the amount of items in the item stack.")
@@ -76,7 +76,7 @@ public class RWorld extends RuntimeValue {
             documentation = "Returns the state of the block at the given position. If no block is present, it will return an empty dictionary."
     )
     public static RDict block_state_at(RWorld world, RVector vector) {
-        var dict = RDict.create();
+        var dict = RDict.createStringKeyed();
         var state = world.javaValue().getBlockState(vector.asBlockPos());
         for(var property : state.getProperties()) {
             if(property.getValueClass().equals(Boolean.class)) {